@@ -0,0 +1,152 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.SchemaBuilder;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+import cricket.jmoore.kafka.connect.transforms.SchemaRegistryTransfer.ConfigName;
+
+/**
+ * Throughput of {@link SchemaRegistryTransfer#apply} against in-process registries, so that only the transform
+ * itself is measured. Run with {@code mvn -Pbenchmarks test-compile exec:exec}, see the README.
+ *
+ * <p>Records pick one of {@value #SCHEMAS} value schemas at random. With {@code cache=hit} every mapping fits in the
+ * cache and is loaded during setup; with {@code cache=mixed} the cache holds only half of them, so about half of the
+ * records miss it.</p>
+ *
+ * <p>Setup registers every schema with the destination, so after it no miss registers anything: each one fetches
+ * the schema from the in-process source registry and finds its destination id in the context's
+ * {@link SubjectRegistrations}. {@code cache=mixed} therefore measures the transform's own cost of a miss, such as
+ * naming the subject, single-flight and eviction, and none of the registry round-trips that dominate a miss in
+ * production.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaRegistryTransferBenchmark {
+	private static final String TOPIC = "benchmark";
+	private static final int SCHEMAS = 64;
+	private static final int PAYLOAD_LENGTH = 64;
+
+	@State(Scope.Benchmark)
+	public static class TransferState {
+		@Param({"hit", "mixed"})
+		public String cache;
+
+		@Param({"true", "false"})
+		public boolean keys;
+
+		@Param({"0", "150"})
+		public int ignorePatterns;
+
+		SchemaRegistryTransfer<SourceRecord> transfer;
+		byte[] key;
+		byte[][] values;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException, RestClientException {
+			final SchemaRegistryClient source = new MockSchemaRegistryClient();
+			final SchemaRegistryClient dest = new MockSchemaRegistryClient();
+			final RegistryPairContext.ClientFactory clients = (urls, capacity, props) ->
+					urls.get(0).contains("source") ? source : dest;
+
+			final int keyId = source.register(TOPIC + "-key", new AvroSchema(org.apache.avro.Schema.create(org.apache.avro.Schema.Type.INT)));
+			key = encode(keyId);
+			values = new byte[SCHEMAS][];
+			for (int i = 0; i < SCHEMAS; i++) {
+				final org.apache.avro.Schema schema = SchemaBuilder.record("Record" + i)
+						.namespace("cricket.jmoore.kafka.connect.transforms").fields()
+						.requiredString("name")
+						.endRecord();
+				values[i] = encode(source.register(TOPIC + "-value", new AvroSchema(schema)));
+			}
+
+			final Map<String, Object> props = new HashMap<>();
+			props.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, "http://source.invalid");
+			props.put(ConfigName.DEST_SCHEMA_REGISTRY_URL, "http://dest.invalid");
+			props.put(ConfigName.TRANSFER_KEYS, keys);
+			props.put(ConfigName.SCHEMA_CAPACITY, "hit".equals(cache) ? 2 * SCHEMAS : SCHEMAS / 2);
+			final List<String> ignore = new ArrayList<>();
+			for (int i = 0; i < ignorePatterns; i++) {
+				ignore.add("ignored-" + i + "-.*");
+			}
+			props.put(ConfigName.IGNORE_LIST, String.join(",", ignore));
+
+			transfer = new SchemaRegistryTransfer<>(clients);
+			transfer.configure(props);
+			for (int i = 0; i < SCHEMAS; i++) {
+				transfer.apply(record(this, i));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			transfer.close();
+		}
+
+		private static byte[] encode(int schemaId) {
+			final ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + PAYLOAD_LENGTH);
+			buffer.put((byte) 0).putInt(schemaId);
+			// the transform never looks past the id, so the payload only has to have a realistic size
+			while (buffer.hasRemaining()) {
+				buffer.put((byte) buffer.position());
+			}
+			return buffer.array();
+		}
+	}
+
+	private static SourceRecord record(TransferState state, int i) {
+		// apply() rewrites the id in place, so every call needs its own copy
+		return new SourceRecord(null, null, TOPIC,
+				Schema.OPTIONAL_BYTES_SCHEMA, state.keys ? state.key.clone() : null,
+				Schema.OPTIONAL_BYTES_SCHEMA, state.values[i].clone());
+	}
+
+	@Benchmark
+	public SourceRecord apply(TransferState state) {
+		return state.transfer.apply(record(state, ThreadLocalRandom.current().nextInt(SCHEMAS)));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public SourceRecord applyFourThreads(TransferState state) {
+		return state.transfer.apply(record(state, ThreadLocalRandom.current().nextInt(SCHEMAS)));
+	}
+
+	@Benchmark
+	@Threads(16)
+	public SourceRecord applySixteenThreads(TransferState state) {
+		return state.transfer.apply(record(state, ThreadLocalRandom.current().nextInt(SCHEMAS)));
+	}
+}
@@ -0,0 +1,134 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.kafka.connect.errors.RetriableException;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+/**
+ * The registry calls made on a cache miss, as {@link CompletableFuture}s, so callers can wait for several misses
+ * at once instead of one after the other.
+ *
+ * <p>Calls still go through the blocking {@link SchemaRegistryClient}, which keeps its caching, authentication and
+ * failover behaviour, but run on the given executor, whose size bounds how many requests are outstanding against
+ * the registry. A direct executor makes every call synchronous again.</p>
+ *
+ * <p>Calls are refused with a {@link RetriableException} while the registry's {@link CircuitBreaker} is open.
+ * Once {@link #balanceReads} was called, schemas are fetched from the registry's nodes directly, through
+ * {@link RegistryEndpoints}, and each node's own breaker guards the fetches sent to it.</p>
+ */
+class AsyncRegistryClient {
+
+	interface RegistryCall<T> {
+		T call() throws IOException, RestClientException;
+	}
+
+	private final SchemaRegistryClient client;
+	private final Executor executor;
+	private final CircuitBreaker breaker;
+	private volatile RegistryEndpoints readEndpoints;
+
+	AsyncRegistryClient(SchemaRegistryClient client, Executor executor, CircuitBreaker breaker) {
+		this.client = client;
+		this.executor = executor;
+		this.breaker = breaker;
+	}
+
+	CircuitBreaker breaker() {
+		return breaker;
+	}
+
+	SchemaRegistryClient client() {
+		return client;
+	}
+
+	RegistryEndpoints readEndpoints() {
+		return readEndpoints;
+	}
+
+	/**
+	 * @return the state of the breaker guarding schema fetches, or with balanced reads that of the node in the best
+	 * state
+	 */
+	CircuitBreaker.State readState() {
+		final RegistryEndpoints endpoints = this.readEndpoints;
+		return endpoints != null ? endpoints.state() : breaker.state();
+	}
+
+	void balanceReads(RegistryEndpoints endpoints) {
+		this.readEndpoints = endpoints;
+	}
+
+	CompletableFuture<ParsedSchema> getSchemaById(int id) {
+		final RegistryEndpoints endpoints = this.readEndpoints;
+		if (endpoints == null) {
+			return call(() -> client.getSchemaById(id));
+		}
+		return endpoints.read(endpoint -> call(() -> endpoint.client().getSchemaById(id), endpoint.breaker()));
+	}
+
+	CompletableFuture<Integer> register(String subject, ParsedSchema schema) {
+		return call(() -> client.register(subject, schema));
+	}
+
+	<T> CompletableFuture<T> call(RegistryCall<T> call) {
+		return call(call, breaker);
+	}
+
+	/**
+	 * Makes {@code call} guarded by {@code breaker} rather than by the registry's own breaker, for calls to a single
+	 * node of it.
+	 */
+	<T> CompletableFuture<T> call(RegistryCall<T> call, CircuitBreaker breaker) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		if (!breaker.tryAcquire()) {
+			future.completeExceptionally(new RetriableException(
+					String.format("%s registry is failing, not calling it for now", breaker.name())));
+			return future;
+		}
+		try {
+			executor.execute(() -> {
+				final T result;
+				try {
+					result = call.call();
+				} catch (Throwable e) {
+					if (RetryPolicy.isRetriable(e)) {
+						breaker.onFailure();
+					} else {
+						// the registry answered, just not with what we hoped for
+						breaker.onSuccess();
+					}
+					future.completeExceptionally(e);
+					return;
+				}
+				breaker.onSuccess();
+				future.complete(result);
+			});
+		} catch (RejectedExecutionException e) {
+			// a saturated or stopped executor says nothing about the registry
+			breaker.onNotCalled();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @return the exception a future was actually completed with, without the wrappers added by composing it.
+	 */
+	static Throwable unwrap(Throwable e) {
+		Throwable t = e;
+		while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t;
+	}
+}
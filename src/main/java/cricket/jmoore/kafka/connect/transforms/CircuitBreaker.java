@@ -0,0 +1,175 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calling a registry that keeps failing, so that cache misses fail fast instead of each holding a task thread
+ * for a full HTTP timeout. One breaker guards each registry of a {@link RegistryPairContext}, and with
+ * {@link RegistryEndpoints} one more each of the source registry's nodes.
+ *
+ * <p>The breaker opens after a number of consecutive calls failed with errors {@link RetryPolicy} considers
+ * transient. While open, calls are refused. Once the open time has passed it lets a single call through, half-open,
+ * and closes again if that call gets an answer or reopens if it does not. Answers such as "not found" count as the
+ * registry being healthy. A threshold of 0 disables the breaker.</p>
+ */
+class CircuitBreaker {
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	private final String name;
+	private final LongSupplier nanoClock;
+
+	// guarded by this
+	private boolean configured;
+	private volatile int failureThreshold;
+	private long openNanos;
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAtNanos;
+	private boolean probing;
+
+	CircuitBreaker(String name) {
+		this(name, System::nanoTime);
+	}
+
+	CircuitBreaker(String name, LongSupplier nanoClock) {
+		this.name = name;
+		this.nanoClock = nanoClock;
+	}
+
+	String name() {
+		return name;
+	}
+
+	/**
+	 * Only the first call has any effect, so instances sharing a context share the settings of the first one.
+	 */
+	synchronized void configure(int failureThreshold, long openMs) {
+		if (configured) {
+			return;
+		}
+		configured = true;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * @return a breaker for another part of the same registry, such as one of its nodes, with the settings this one
+	 * has so far
+	 */
+	synchronized CircuitBreaker sibling(String name) {
+		final CircuitBreaker sibling = new CircuitBreaker(name, nanoClock);
+		if (configured) {
+			sibling.configure(failureThreshold, TimeUnit.NANOSECONDS.toMillis(openNanos));
+		}
+		return sibling;
+	}
+
+	/**
+	 * @return whether {@link #tryAcquire} would refuse a call now, without letting a probe through
+	 */
+	boolean refusesCalls() {
+		if (failureThreshold <= 0) {
+			return false;
+		}
+		synchronized (this) {
+			switch (state) {
+				case CLOSED:
+					return false;
+				case OPEN:
+					return nanoClock.getAsLong() - openedAtNanos < openNanos;
+				case HALF_OPEN:
+				default:
+					return probing;
+			}
+		}
+	}
+
+	/**
+	 * @return whether a call may be made now. Every permitted call must be followed by {@link #onSuccess} or
+	 * {@link #onFailure}, or by {@link #onNotCalled} when it was not made after all.
+	 */
+	boolean tryAcquire() {
+		if (failureThreshold <= 0) {
+			return true;
+		}
+		synchronized (this) {
+			switch (state) {
+				case CLOSED:
+					return true;
+				case OPEN:
+					if (nanoClock.getAsLong() - openedAtNanos < openNanos) {
+						return false;
+					}
+					log.info("Trying {} registry again after {} ms", name, TimeUnit.NANOSECONDS.toMillis(openNanos));
+					state = State.HALF_OPEN;
+					probing = true;
+					return true;
+				case HALF_OPEN:
+				default:
+					if (probing) {
+						return false;
+					}
+					probing = true;
+					return true;
+			}
+		}
+	}
+
+	void onSuccess() {
+		if (failureThreshold <= 0) {
+			return;
+		}
+		synchronized (this) {
+			if (state != State.CLOSED) {
+				log.info("{} registry is answering again", name);
+			}
+			state = State.CLOSED;
+			consecutiveFailures = 0;
+			probing = false;
+		}
+	}
+
+	void onFailure() {
+		if (failureThreshold <= 0) {
+			return;
+		}
+		synchronized (this) {
+			probing = false;
+			consecutiveFailures++;
+			if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+				log.warn("{} registry failed {} times in a row, not calling it for {} ms", name, consecutiveFailures,
+						TimeUnit.NANOSECONDS.toMillis(openNanos));
+				state = State.OPEN;
+				openedAtNanos = nanoClock.getAsLong();
+			}
+		}
+	}
+
+	/**
+	 * Hands back a permitted call that never reached the registry, which tells nothing about its health, so that
+	 * a half-open breaker lets another call probe it.
+	 */
+	void onNotCalled() {
+		if (failureThreshold <= 0) {
+			return;
+		}
+		synchronized (this) {
+			probing = false;
+		}
+	}
+
+	synchronized State state() {
+		return state;
+	}
+}
@@ -0,0 +1,150 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints compressed the way Roaring bitmaps are: ids are grouped by their upper 16 bits, and each group
+ * keeps its lower 16 bits either as a sorted array, while it holds at most {@value #ARRAY_MAX} ids, or as a 64
+ * Kbit bitmap once that is smaller. Sparse ids cost about two bytes each and dense ranges one bit each.
+ *
+ * <p>The set is copy-on-write. {@link #contains} reads an immutable snapshot without locking, so it suits sets that
+ * are read on every record and added to rarely.</p>
+ */
+final class CompactIdSet {
+	static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+
+	private static final class State {
+		static final State EMPTY = new State(new char[0], new Object[0], 0);
+
+		// sorted upper 16 bits of the ids in each container
+		final char[] highs;
+		// a sorted char[] of lower 16 bits, or a long[] bitmap of them
+		final Object[] containers;
+		final int size;
+
+		State(char[] highs, Object[] containers, int size) {
+			this.highs = highs;
+			this.containers = containers;
+			this.size = size;
+		}
+	}
+
+	private volatile State state = State.EMPTY;
+
+	boolean contains(int id) {
+		final State s = state;
+		final int i = Arrays.binarySearch(s.highs, (char) (id >>> 16));
+		if (i < 0) {
+			return false;
+		}
+		final char low = (char) id;
+		final Object container = s.containers[i];
+		if (container instanceof long[]) {
+			return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+		}
+		return Arrays.binarySearch((char[]) container, low) >= 0;
+	}
+
+	/**
+	 * @return false when {@code id} was already in the set
+	 */
+	synchronized boolean add(int id) {
+		if (contains(id)) {
+			return false;
+		}
+		final State s = state;
+		final char high = (char) (id >>> 16);
+		final char low = (char) id;
+		final int i = Arrays.binarySearch(s.highs, high);
+		final char[] highs;
+		final Object[] containers;
+		if (i >= 0) {
+			highs = s.highs;
+			containers = s.containers.clone();
+			containers[i] = with(containers[i], low);
+		} else {
+			final int at = -i - 1;
+			highs = new char[s.highs.length + 1];
+			System.arraycopy(s.highs, 0, highs, 0, at);
+			highs[at] = high;
+			System.arraycopy(s.highs, at, highs, at + 1, s.highs.length - at);
+			containers = new Object[s.containers.length + 1];
+			System.arraycopy(s.containers, 0, containers, 0, at);
+			containers[at] = new char[] {low};
+			System.arraycopy(s.containers, at, containers, at + 1, s.containers.length - at);
+		}
+		state = new State(highs, containers, s.size + 1);
+		return true;
+	}
+
+	int size() {
+		return state.size;
+	}
+
+	/**
+	 * @return every id in the set, in ascending order of their unsigned value
+	 */
+	int[] toArray() {
+		final State s = state;
+		final int[] ids = new int[s.size];
+		int n = 0;
+		for (int i = 0; i < s.highs.length; i++) {
+			final int high = s.highs[i] << 16;
+			final Object container = s.containers[i];
+			if (container instanceof long[]) {
+				final long[] bits = (long[]) container;
+				for (int w = 0; w < bits.length; w++) {
+					long word = bits[w];
+					while (word != 0) {
+						ids[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			} else {
+				for (final char low : (char[]) container) {
+					ids[n++] = high | low;
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return roughly how many bytes the containers take, without object headers
+	 */
+	long containerBytes() {
+		final State s = state;
+		long bytes = s.highs.length * (long) Character.BYTES;
+		for (final Object container : s.containers) {
+			bytes += container instanceof long[]
+					? ((long[]) container).length * (long) Long.BYTES
+					: ((char[]) container).length * (long) Character.BYTES;
+		}
+		return bytes;
+	}
+
+	private static Object with(Object container, char low) {
+		if (container instanceof long[]) {
+			final long[] bits = ((long[]) container).clone();
+			bits[low >>> 6] |= 1L << low;
+			return bits;
+		}
+		final char[] lows = (char[]) container;
+		if (lows.length >= ARRAY_MAX) {
+			final long[] bits = new long[BITMAP_WORDS];
+			for (final char l : lows) {
+				bits[l >>> 6] |= 1L << l;
+			}
+			bits[low >>> 6] |= 1L << low;
+			return bits;
+		}
+		final int at = -Arrays.binarySearch(lows, low) - 1;
+		final char[] grown = new char[lows.length + 1];
+		System.arraycopy(lows, 0, grown, 0, at);
+		grown[at] = low;
+		System.arraycopy(lows, at, grown, at + 1, lows.length - at);
+		return grown;
+	}
+}
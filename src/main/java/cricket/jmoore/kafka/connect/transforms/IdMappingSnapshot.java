@@ -0,0 +1,345 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads and writes the id mapping of a context as a compact binary file, so a restarted worker can translate ids
+ * without asking either registry again.
+ *
+ * <p>Layout, all integers big-endian, strings as an int length followed by that many UTF-8 bytes:</p>
+ * <pre>
+ * int    magic ("SRTM")
+ * int    format version
+ * int    fingerprint of the registry pair, see {@link RegistryPairContext#pairFingerprint()}
+ * string destination key and value subject name strategy class names, comma separated
+ * int    offset ids were imported under, or -1 when the destination assigned ids
+ * int    subject count
+ * per subject, in name order:
+ *   string subject name
+ *   int    pair count
+ *   int[]  (source id, destination id) pairs sorted by source id
+ * int    topic count
+ * per topic, in name order:
+ *   string topic name
+ *   int    key pair count, followed by its pairs sorted by source id
+ *   int    value pair count, followed by its pairs sorted by source id
+ * int    imported subject count
+ * per subject, in name order:
+ *   string subject name
+ *   int    id count
+ *   int[]  imported source ids in ascending order
+ * int    imported topic count
+ * per topic, in name order:
+ *   string topic name
+ *   int    imported key id count, followed by its ids in ascending order
+ *   int    imported value id count, followed by its ids in ascending order
+ * int    CRC32 of everything above
+ * </pre>
+ *
+ * <p>The subjects let a restarted worker skip registrations, and the topics let its records hit the cache
+ * whatever strategy names their subjects. Topics are only restored under the strategies they were written with,
+ * since other strategies would map their records to other subjects, and imported ids only under the offset they
+ * were written with, since it decides their destination ids.</p>
+ *
+ * <p>Snapshots are written to a temporary file and moved into place, and read through a memory mapping. A
+ * snapshot with an unknown version, a bad checksum or of another registry pair is ignored rather than
+ * trusted.</p>
+ */
+class IdMappingSnapshot {
+	private static final Logger log = LoggerFactory.getLogger(IdMappingSnapshot.class);
+
+	static final int MAGIC = 0x5352544D;
+	static final int FORMAT_VERSION = 3;
+	private static final int NOT_PRESERVED = -1;
+
+	private static final int HEADER_LENGTH = 3 * Integer.BYTES;
+	private static final int CHECKSUM_LENGTH = Integer.BYTES;
+
+	private IdMappingSnapshot() {
+	}
+
+	static void write(Path path, RegistryPairContext context) throws IOException {
+		final SortedMap<String, int[]> subjects = new TreeMap<>();
+		context.subjectRegistrations.forEachSubject((subject, ids) -> subjects.put(subject, sortedPairs(ids)));
+
+		final Map<Integer, String> topicNames = context.topicNames();
+		final SortedMap<String, Map<Integer, Integer>> keys = new TreeMap<>();
+		final SortedMap<String, Map<Integer, Integer>> values = new TreeMap<>();
+		context.schemaCache.forEach((key, destId) -> {
+			final String topic = topicNames.get(SchemaIdCache.topicIndex(key));
+			if (topic == null) {
+				// indexed after we listed the topics, the next snapshot will pick it up
+				return;
+			}
+			keys.computeIfAbsent(topic, t -> new HashMap<>());
+			values.computeIfAbsent(topic, t -> new HashMap<>());
+			(SchemaIdCache.isKey(key) ? keys : values).get(topic).put(SchemaIdCache.sourceId(key), destId);
+		});
+
+		final SortedMap<String, int[]> importedSubjects = new TreeMap<>();
+		context.importedIds.forEachSubject(importedSubjects::put);
+		final SortedMap<String, List<Integer>> importedKeys = new TreeMap<>();
+		final SortedMap<String, List<Integer>> importedValues = new TreeMap<>();
+		context.importedIds.forEachKey(key -> {
+			final String topic = topicNames.get(SchemaIdCache.topicIndex(key));
+			if (topic == null) {
+				return;
+			}
+			importedKeys.computeIfAbsent(topic, t -> new ArrayList<>());
+			importedValues.computeIfAbsent(topic, t -> new ArrayList<>());
+			(SchemaIdCache.isKey(key) ? importedKeys : importedValues).get(topic).add(SchemaIdCache.sourceId(key));
+		});
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(context.pairFingerprint());
+		writeString(out, String.join(",", context.subjectNameStrategies()));
+		final Integer preservedIdOffset = context.preservedIdOffset();
+		out.writeInt(preservedIdOffset == null ? NOT_PRESERVED : preservedIdOffset);
+		out.writeInt(subjects.size());
+		for (final Map.Entry<String, int[]> e : subjects.entrySet()) {
+			writeString(out, e.getKey());
+			writePairs(out, e.getValue());
+		}
+		out.writeInt(keys.size());
+		for (final String topic : keys.keySet()) {
+			writeString(out, topic);
+			writePairs(out, sortedPairs(keys.get(topic)));
+			writePairs(out, sortedPairs(values.get(topic)));
+		}
+		out.writeInt(importedSubjects.size());
+		for (final Map.Entry<String, int[]> e : importedSubjects.entrySet()) {
+			writeString(out, e.getKey());
+			writeIds(out, e.getValue());
+		}
+		out.writeInt(importedKeys.size());
+		for (final String topic : importedKeys.keySet()) {
+			writeString(out, topic);
+			writeIds(out, sortedIds(importedKeys.get(topic)));
+			writeIds(out, sortedIds(importedValues.get(topic)));
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		final ByteBuffer contents = ByteBuffer.wrap(bytes.toByteArray());
+
+		final Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (contents.hasRemaining()) {
+				channel.write(contents);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(utf8.length);
+		out.write(utf8);
+	}
+
+	private static void writePairs(DataOutputStream out, int[] pairs) throws IOException {
+		out.writeInt(pairs.length / 2);
+		for (final int id : pairs) {
+			out.writeInt(id);
+		}
+	}
+
+	private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+		out.writeInt(ids.length);
+		for (final int id : ids) {
+			out.writeInt(id);
+		}
+	}
+
+	/**
+	 * Restores every pair in the snapshot at {@code path} into {@code context}, if it was written for the same
+	 * pair of registries.
+	 *
+	 * @return the number of pairs restored, 0 when there is no usable snapshot
+	 */
+	static int load(Path path, RegistryPairContext context) {
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			log.debug("No schema id snapshot at {}", path);
+			return 0;
+		} catch (IOException e) {
+			log.warn("Unable to read schema id snapshot {}", path, e);
+			return 0;
+		}
+
+		try {
+			if (buffer.remaining() < HEADER_LENGTH + CHECKSUM_LENGTH) {
+				log.warn("Ignoring truncated schema id snapshot {}", path);
+				return 0;
+			}
+			final int magic = buffer.getInt();
+			final int version = buffer.getInt();
+			if (magic != MAGIC || version != FORMAT_VERSION) {
+				log.warn("Ignoring schema id snapshot {} with unsupported header {}/{}", path, magic, version);
+				return 0;
+			}
+			final int checksumOffset = buffer.limit() - CHECKSUM_LENGTH;
+			final CRC32 crc = new CRC32();
+			final ByteBuffer checked = buffer.duplicate();
+			// cast so the class also links against Java 8, where these are not overridden by ByteBuffer
+			((Buffer) checked).position(0);
+			((Buffer) checked).limit(checksumOffset);
+			final byte[] chunk = new byte[8192];
+			while (checked.hasRemaining()) {
+				final int n = Math.min(chunk.length, checked.remaining());
+				checked.get(chunk, 0, n);
+				crc.update(chunk, 0, n);
+			}
+			if ((int) crc.getValue() != buffer.getInt(checksumOffset)) {
+				log.warn("Ignoring schema id snapshot {} with a bad checksum", path);
+				return 0;
+			}
+
+			if (buffer.getInt() != context.pairFingerprint()) {
+				log.warn("Ignoring schema id snapshot {} of another pair of registries", path);
+				return 0;
+			}
+			final String strategies = readString(buffer);
+			final boolean sameStrategies = strategies.equals(String.join(",", context.subjectNameStrategies()));
+			final int preservedIdOffset = buffer.getInt();
+			final boolean sameOffset = context.preservedIdOffset() != null && context.preservedIdOffset() == preservedIdOffset;
+
+			int restored = 0;
+			final int subjectCount = buffer.getInt();
+			for (int s = 0; s < subjectCount; s++) {
+				final String subject = readString(buffer);
+				final int pairCount = buffer.getInt();
+				for (int p = 0; p < pairCount; p++) {
+					final int sourceId = buffer.getInt();
+					final int destId = buffer.getInt();
+					context.restore(subject, sourceId, destId);
+					restored++;
+				}
+			}
+			if (!sameStrategies) {
+				log.info("Not restoring the topics of schema id snapshot {}, written for subject name strategies {}",
+						path, strategies);
+			}
+			final int topicCount = buffer.getInt();
+			for (int t = 0; t < topicCount; t++) {
+				final String topic = readString(buffer);
+				for (final boolean isKey : new boolean[] {true, false}) {
+					final int pairCount = buffer.getInt();
+					for (int p = 0; p < pairCount; p++) {
+						final int sourceId = buffer.getInt();
+						final int destId = buffer.getInt();
+						if (sameStrategies) {
+							context.restoreTopic(topic, isKey, sourceId, destId);
+							restored++;
+						}
+					}
+				}
+			}
+
+			if (!sameOffset && preservedIdOffset != NOT_PRESERVED) {
+				log.info("Not restoring the imported ids of schema id snapshot {}, written for an id offset of {}", path,
+						preservedIdOffset);
+			}
+			final int importedSubjectCount = buffer.getInt();
+			for (int s = 0; s < importedSubjectCount; s++) {
+				final String subject = readString(buffer);
+				final int idCount = buffer.getInt();
+				for (int i = 0; i < idCount; i++) {
+					final int sourceId = buffer.getInt();
+					if (sameOffset) {
+						context.restoreImport(subject, sourceId);
+						restored++;
+					}
+				}
+			}
+			final int importedTopicCount = buffer.getInt();
+			for (int t = 0; t < importedTopicCount; t++) {
+				final String topic = readString(buffer);
+				for (final boolean isKey : new boolean[] {true, false}) {
+					final int idCount = buffer.getInt();
+					for (int i = 0; i < idCount; i++) {
+						final int sourceId = buffer.getInt();
+						if (sameOffset && sameStrategies) {
+							context.importedIds.add(context.cacheKey(topic, isKey, sourceId));
+							restored++;
+						}
+					}
+				}
+			}
+			log.info("Restored {} schema id mappings from snapshot {}", restored, path);
+			return restored;
+		} catch (RuntimeException e) {
+			log.warn("Ignoring malformed schema id snapshot {}", path, e);
+			return 0;
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		final byte[] utf8 = new byte[buffer.getInt()];
+		buffer.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	private static int[] sortedIds(List<Integer> ids) {
+		final int[] sorted = new int[ids.size()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = ids.get(i);
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private static int[] sortedPairs(Map<Integer, Integer> ids) {
+		final long[] packed = new long[ids.size()];
+		int n = 0;
+		for (final Map.Entry<Integer, Integer> e : ids.entrySet()) {
+			if (n == packed.length) {
+				// the map grew while we were copying it, the next snapshot will pick the rest up
+				break;
+			}
+			packed[n++] = ((long) e.getKey() << 32) | (e.getValue() & 0xFFFFFFFFL);
+		}
+		Arrays.sort(packed, 0, n);
+		final int[] pairs = new int[n * 2];
+		for (int i = 0; i < n; i++) {
+			pairs[2 * i] = (int) (packed[i] >>> 32);
+			pairs[2 * i + 1] = (int) packed[i];
+		}
+		return pairs;
+	}
+}
@@ -0,0 +1,31 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.Closeable;
+
+/**
+ * A place outside of the worker's memory where learned (subject, source id) to destination id mappings are kept,
+ * so that other workers, or this one after a restart, can use them without asking the registries.
+ */
+interface IdMappingStore extends Closeable {
+
+	interface Listener {
+		void onMapping(String subject, int sourceId, int destId);
+	}
+
+	/**
+	 * Replays every stored mapping into {@code listener}, returning once the store has caught up or its load
+	 * timeout elapsed. Stores that observe mappings published by others keep calling {@code listener} afterwards,
+	 * from a thread of their own.
+	 */
+	void start(Listener listener);
+
+	/**
+	 * Stores a mapping this worker just learned. Must not block on the store being reachable, and may drop the
+	 * mapping when the store falls too far behind.
+	 */
+	void put(String subject, int sourceId, int destId);
+
+	@Override
+	void close();
+}
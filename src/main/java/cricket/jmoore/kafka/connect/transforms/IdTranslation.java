@@ -0,0 +1,27 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+/**
+ * Derives the destination schema id from the source schema id, for when schemas are imported into the destination
+ * registry under an id of our choosing instead of one it assigns.
+ *
+ * <p>Because the destination id follows from the source id, an imported schema only needs to be remembered as
+ * done, see {@link ImportedIds}, rather than mapped.</p>
+ */
+interface IdTranslation {
+	IdTranslation IDENTITY = sourceId -> sourceId;
+
+	/**
+	 * @return the id {@code sourceId} is imported under, or {@link SchemaIdCache#NO_ID} when that id does not fit in
+	 * an int
+	 */
+	int destinationId(int sourceId);
+
+	/**
+	 * Moves every id up by {@code offset}, so that schemas from several source registries can be imported into one
+	 * destination registry without their ids colliding.
+	 */
+	static IdTranslation offset(int offset) {
+		return offset == 0 ? IDENTITY : sourceId -> sourceId > Integer.MAX_VALUE - offset ? SchemaIdCache.NO_ID : sourceId + offset;
+	}
+}
@@ -0,0 +1,93 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * The source schema ids already imported into the destination registry under their {@link IdTranslation}, kept
+ * both per topic and record side like the keys of {@link SchemaIdCache}, which records look up, and per
+ * destination subject like {@link SubjectRegistrations}, which misses, warm-up and referenced schemas look up.
+ * The destination id follows from the source id, so each one only takes a place in a {@link CompactIdSet}.
+ *
+ * <p>Lookups take no lock, and a lookup racing with an addition may miss the new id, which only sends it down the
+ * miss path once more.</p>
+ */
+class ImportedIds {
+	// keyed by the topic and side half of a SchemaIdCache key
+	private final Map<Integer, CompactIdSet> sides = new ConcurrentHashMap<>();
+	// one set per destination subject, of which there are no more than the source registry has
+	private final Map<String, CompactIdSet> subjects = new ConcurrentHashMap<>();
+	private final AtomicLong modifications = new AtomicLong();
+
+	/**
+	 * @param cacheKey a key made by {@link SchemaIdCache#key}, or {@link SchemaIdCache#NO_KEY}, which is never
+	 * contained
+	 */
+	boolean contains(long cacheKey) {
+		if (cacheKey == SchemaIdCache.NO_KEY) {
+			return false;
+		}
+		final CompactIdSet ids = sides.get(side(cacheKey));
+		return ids != null && ids.contains(id(cacheKey));
+	}
+
+	void add(long cacheKey) {
+		if (cacheKey == SchemaIdCache.NO_KEY) {
+			return;
+		}
+		if (sides.computeIfAbsent(side(cacheKey), s -> new CompactIdSet()).add(id(cacheKey))) {
+			modifications.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return whether {@code sourceId} was imported under {@code subject}
+	 */
+	boolean contains(String subject, int sourceId) {
+		final CompactIdSet ids = subjects.get(subject);
+		return ids != null && ids.contains(sourceId);
+	}
+
+	void add(String subject, int sourceId) {
+		if (subjects.computeIfAbsent(subject, s -> new CompactIdSet()).add(sourceId)) {
+			modifications.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Visits the {@link SchemaIdCache} key of every imported id, in no particular order.
+	 */
+	void forEachKey(LongConsumer action) {
+		sides.forEach((side, ids) -> {
+			for (final int id : ids.toArray()) {
+				action.accept(((long) side << 32) | (id & 0xFFFFFFFFL));
+			}
+		});
+	}
+
+	/**
+	 * Visits every subject and its imported source ids in ascending order.
+	 */
+	void forEachSubject(BiConsumer<String, int[]> action) {
+		subjects.forEach((subject, ids) -> action.accept(subject, ids.toArray()));
+	}
+
+	/**
+	 * @return a counter that increases whenever an id is added, for callers that persist these ids.
+	 */
+	long modifications() {
+		return modifications.get();
+	}
+
+	private static int side(long cacheKey) {
+		return (int) (cacheKey >>> 32);
+	}
+
+	private static int id(long cacheKey) {
+		return (int) cacheKey;
+	}
+}
@@ -0,0 +1,169 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The transform's Java Flight Recorder events. Only loaded through {@link TransferEvents}, once it has made sure
+ * the JVM has {@code jdk.jfr}.
+ *
+ * <p>Registry events begin on the thread that misses the cache and are committed by whichever thread completes
+ * the registry call, so their duration covers the whole round-trip including any wait for a registry thread.</p>
+ */
+final class JfrTransferEvents {
+	private static final String CATEGORY = "Schema Registry Transfer";
+
+	private JfrTransferEvents() {
+	}
+
+	@Name("cricket.jmoore.SchemaCacheMiss")
+	@Label("Schema Cache Miss")
+	@Description("A schema id that was not in the cache, from the lookup until its destination id was known")
+	@Category({"Kafka Connect", CATEGORY})
+	static final class SchemaCacheMiss extends Event {
+		@Label("Topic")
+		String topic;
+		@Label("Key")
+		boolean isKey;
+		@Label("Source Schema Id")
+		int sourceId;
+		@Label("Destination Schema Id")
+		@Description("-1 when the schema could not be copied")
+		int destId;
+	}
+
+	@Name("cricket.jmoore.SourceSchemaFetch")
+	@Label("Source Schema Fetch")
+	@Description("Fetching a schema by id from the source registry")
+	@Category({"Kafka Connect", CATEGORY})
+	static final class SourceSchemaFetch extends Event {
+		@Label("Topic")
+		String topic;
+		@Label("Source Schema Id")
+		int sourceId;
+		@Label("Outcome")
+		@Description("found, not found, circuit open or failed")
+		String outcome;
+		@Label("Error")
+		@Description("The failure, when the schema could not be fetched")
+		String error;
+	}
+
+	@Name("cricket.jmoore.DestSchemaRegister")
+	@Label("Destination Schema Register")
+	@Description("Registering a schema with the destination registry")
+	@Category({"Kafka Connect", CATEGORY})
+	static final class DestSchemaRegister extends Event {
+		@Label("Subject")
+		String subject;
+		@Label("Source Schema Id")
+		int sourceId;
+		@Label("Destination Schema Id")
+		@Description("-1 when the registration failed")
+		int destId;
+	}
+
+	@Name("cricket.jmoore.IdRewrite")
+	@Label("Schema Id Rewrite")
+	@Description("A record key or value whose schema id was rewritten")
+	@Category({"Kafka Connect", CATEGORY})
+	@StackTrace(false)
+	static final class IdRewrite extends Event {
+		@Label("Topic")
+		String topic;
+		@Label("Key")
+		boolean isKey;
+		@Label("Source Schema Id")
+		int sourceId;
+		@Label("Destination Schema Id")
+		int destId;
+	}
+
+	// asked before creating an event, so that records pay for no allocation while no recording wants them
+	private static final EventType CACHE_MISS = EventType.getEventType(SchemaCacheMiss.class);
+	private static final EventType SOURCE_FETCH = EventType.getEventType(SourceSchemaFetch.class);
+	private static final EventType DEST_REGISTER = EventType.getEventType(DestSchemaRegister.class);
+	private static final EventType ID_REWRITE = EventType.getEventType(IdRewrite.class);
+
+	static Object beginCacheMiss() {
+		if (!CACHE_MISS.isEnabled()) {
+			return null;
+		}
+		final SchemaCacheMiss event = new SchemaCacheMiss();
+		event.begin();
+		return event;
+	}
+
+	static void endCacheMiss(Object handle, String topic, boolean isKey, int sourceId, int destId) {
+		final SchemaCacheMiss event = (SchemaCacheMiss) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.isKey = isKey;
+			event.sourceId = sourceId;
+			event.destId = destId;
+			event.commit();
+		}
+	}
+
+	static Object beginSourceFetch() {
+		if (!SOURCE_FETCH.isEnabled()) {
+			return null;
+		}
+		final SourceSchemaFetch event = new SourceSchemaFetch();
+		event.begin();
+		return event;
+	}
+
+	static void endSourceFetch(Object handle, String topic, int sourceId, String outcome, Throwable error) {
+		final SourceSchemaFetch event = (SourceSchemaFetch) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.sourceId = sourceId;
+			event.outcome = outcome;
+			event.error = error == null ? null : error.toString();
+			event.commit();
+		}
+	}
+
+	static Object beginDestRegister() {
+		if (!DEST_REGISTER.isEnabled()) {
+			return null;
+		}
+		final DestSchemaRegister event = new DestSchemaRegister();
+		event.begin();
+		return event;
+	}
+
+	static void endDestRegister(Object handle, String subject, int sourceId, int destId) {
+		final DestSchemaRegister event = (DestSchemaRegister) handle;
+		event.end();
+		if (event.shouldCommit()) {
+			event.subject = subject;
+			event.sourceId = sourceId;
+			event.destId = destId;
+			event.commit();
+		}
+	}
+
+	static void idRewrite(String topic, boolean isKey, int sourceId, int destId) {
+		if (!ID_REWRITE.isEnabled()) {
+			return;
+		}
+		final IdRewrite event = new IdRewrite();
+		if (event.shouldCommit()) {
+			event.topic = topic;
+			event.isKey = isKey;
+			event.sourceId = sourceId;
+			event.destId = destId;
+			event.commit();
+		}
+	}
+}
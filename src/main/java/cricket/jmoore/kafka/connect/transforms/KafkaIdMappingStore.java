@@ -0,0 +1,235 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IdMappingStore} backed by a compacted Kafka topic, shared by every worker that points at it.
+ *
+ * <p>Each record's key is a format byte, the {@link RegistryPairContext#pairFingerprint() fingerprint} of the
+ * registry pair, the 4-byte source id and the UTF-8 subject name, and its value is the 4-byte destination id, so
+ * compaction keeps exactly one record per (registry pair, subject, source id). A background thread reads the topic
+ * from the beginning and then keeps tailing it, so mappings learned by any worker reach all of them. Records of
+ * other registry pairs sharing the topic are skipped.</p>
+ *
+ * <p>Mappings are handed to the producer on a thread of their own, since {@code send} blocks for up to
+ * {@code max.block.ms} while the topic's metadata is unknown or the producer's buffer is full. Once
+ * {@value #PENDING_CAPACITY} mappings are waiting, further ones are dropped, which only costs other workers a
+ * registry round-trip.</p>
+ *
+ * <p>The topic must be created up front with {@code cleanup.policy=compact}.</p>
+ */
+class KafkaIdMappingStore implements IdMappingStore {
+	private static final Logger log = LoggerFactory.getLogger(KafkaIdMappingStore.class);
+
+	private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+	static final int PENDING_CAPACITY = 10_000;
+	// leads every key, so that keys written without a pair fingerprint, which start with a source id, are skipped
+	private static final byte KEY_FORMAT = 1;
+	private static final int KEY_HEADER_BYTES = 1 + Integer.BYTES + Integer.BYTES;
+
+	private final String topic;
+	private final int pairFingerprint;
+	private final Producer<byte[], byte[]> producer;
+	private final Consumer<byte[], byte[]> consumer;
+	private final long loadTimeoutMs;
+	private final CountDownLatch loaded = new CountDownLatch(1);
+	private final ExecutorService publisher;
+
+	private Thread reader;
+	private volatile boolean running;
+
+	KafkaIdMappingStore(String topic, int pairFingerprint, Producer<byte[], byte[]> producer, Consumer<byte[], byte[]> consumer,
+			long loadTimeoutMs) {
+		this.topic = topic;
+		this.pairFingerprint = pairFingerprint;
+		this.producer = producer;
+		this.consumer = consumer;
+		this.loadTimeoutMs = loadTimeoutMs;
+		this.publisher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(PENDING_CAPACITY), r -> {
+			final Thread t = new Thread(r, "schema-registry-transfer-store-publish-" + topic);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * @param pairFingerprint the {@link RegistryPairContext#pairFingerprint()} of the registry pair whose mappings
+	 * this store keeps
+	 * @param clientConfigs configs shared by the producer and the consumer, e.g. bootstrap servers and security
+	 */
+	static KafkaIdMappingStore create(String topic, int pairFingerprint, Map<String, Object> clientConfigs, long loadTimeoutMs) {
+		final Map<String, Object> producerConfigs = new HashMap<>(clientConfigs);
+		producerConfigs.put(ProducerConfig.ACKS_CONFIG, "all");
+		producerConfigs.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		producerConfigs.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+
+		final Map<String, Object> consumerConfigs = new HashMap<>(clientConfigs);
+		consumerConfigs.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+		consumerConfigs.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+		consumerConfigs.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+
+		return new KafkaIdMappingStore(topic, pairFingerprint, new KafkaProducer<>(producerConfigs), new KafkaConsumer<>(consumerConfigs),
+				loadTimeoutMs);
+	}
+
+	@Override
+	public void start(Listener listener) {
+		running = true;
+		reader = new Thread(() -> readLoop(listener), "schema-registry-transfer-store-" + topic);
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			if (!loaded.await(loadTimeoutMs, TimeUnit.MILLISECONDS)) {
+				log.warn("Did not catch up with id mapping topic {} within {} ms, continuing in the background", topic, loadTimeoutMs);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void put(String subject, int sourceId, int destId) {
+		try {
+			publisher.execute(() -> send(subject, sourceId, destId));
+		} catch (RejectedExecutionException e) {
+			log.warn("Dropping id mapping {} -> {} for subject {}, too many are waiting to be published to topic {}",
+					sourceId, destId, subject, topic);
+		}
+	}
+
+	private void send(String subject, int sourceId, int destId) {
+		try {
+			producer.send(new ProducerRecord<>(topic, key(pairFingerprint, subject, sourceId), ByteBuffer.allocate(Integer.BYTES).putInt(destId).array()),
+					(metadata, e) -> {
+						if (e != null) {
+							log.warn("Unable to publish id mapping {} -> {} for subject {} to topic {}", sourceId, destId, subject, topic, e);
+						}
+					});
+		} catch (RuntimeException e) {
+			log.warn("Unable to publish id mapping {} -> {} for subject {} to topic {}", sourceId, destId, subject, topic, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		consumer.wakeup();
+		if (reader != null) {
+			try {
+				reader.join(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		publisher.shutdown();
+		try {
+			if (!publisher.awaitTermination(30, TimeUnit.SECONDS)) {
+				log.warn("Gave up publishing id mappings to topic {}", topic);
+				publisher.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		producer.close();
+	}
+
+	private void readLoop(Listener listener) {
+		try {
+			final List<TopicPartition> partitions = new ArrayList<>();
+			final List<PartitionInfo> infos = consumer.partitionsFor(topic);
+			if (infos == null || infos.isEmpty()) {
+				throw new ConnectException(String.format("Id mapping topic %s does not exist", topic));
+			}
+			for (final PartitionInfo info : infos) {
+				partitions.add(new TopicPartition(info.topic(), info.partition()));
+			}
+			consumer.assign(partitions);
+			consumer.seekToBeginning(partitions);
+			final Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+
+			int restored = 0;
+			while (running) {
+				for (final ConsumerRecord<byte[], byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+					if (apply(record, listener)) {
+						restored++;
+					}
+				}
+				if (loaded.getCount() > 0 && caughtUp(endOffsets)) {
+					log.info("Loaded {} id mappings from topic {}", restored, topic);
+					loaded.countDown();
+				}
+			}
+		} catch (WakeupException e) {
+			if (running) {
+				log.warn("Unexpected wakeup while reading id mapping topic {}", topic, e);
+			}
+		} catch (RuntimeException e) {
+			log.error("Stopped reading id mapping topic {}", topic, e);
+		} finally {
+			loaded.countDown();
+			consumer.close();
+		}
+	}
+
+	private boolean caughtUp(Map<TopicPartition, Long> endOffsets) {
+		for (final Map.Entry<TopicPartition, Long> e : endOffsets.entrySet()) {
+			if (consumer.position(e.getKey()) < e.getValue()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean apply(ConsumerRecord<byte[], byte[]> record, Listener listener) {
+		final byte[] key = record.key();
+		final byte[] value = record.value();
+		if (key == null || key.length < KEY_HEADER_BYTES || key[0] != KEY_FORMAT || value == null || value.length != Integer.BYTES) {
+			log.debug("Skipping malformed id mapping record at offset {} of {}-{}", record.offset(), record.topic(), record.partition());
+			return false;
+		}
+		final ByteBuffer k = ByteBuffer.wrap(key, 1, KEY_HEADER_BYTES - 1);
+		if (k.getInt() != pairFingerprint) {
+			// another registry pair's mapping
+			return false;
+		}
+		final int sourceId = k.getInt();
+		final String subject = new String(key, KEY_HEADER_BYTES, key.length - KEY_HEADER_BYTES, StandardCharsets.UTF_8);
+		listener.onMapping(subject, sourceId, ByteBuffer.wrap(value).getInt());
+		return true;
+	}
+
+	static byte[] key(int pairFingerprint, String subject, int sourceId) {
+		final byte[] name = subject.getBytes(StandardCharsets.UTF_8);
+		return ByteBuffer.allocate(KEY_HEADER_BYTES + name.length).put(KEY_FORMAT).putInt(pairFingerprint).putInt(sourceId).put(name).array();
+	}
+}
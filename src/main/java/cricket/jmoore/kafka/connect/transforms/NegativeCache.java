@@ -0,0 +1,103 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers for a while the {@link SchemaIdCache} keys whose schema could not be copied, either because the source
+ * registry does not know the id or because the destination registry refused it, so that records carrying the same
+ * id fail fast instead of asking the registries again.
+ *
+ * <p>Entries expire after a fixed time to live. When the cache is full, expired entries are dropped first and then
+ * the entry closest to expiring.</p>
+ */
+class NegativeCache {
+
+	private static final class Entry {
+		final long expiresAtNanos;
+		final TransferMetrics.Failure cause;
+
+		Entry(long expiresAtNanos, TransferMetrics.Failure cause) {
+			this.expiresAtNanos = expiresAtNanos;
+			this.cause = cause;
+		}
+	}
+
+	private final long ttlNanos;
+	private final int capacity;
+	private final LongSupplier nanoClock;
+	private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+	NegativeCache(long ttlMs, int capacity) {
+		this(ttlMs, capacity, System::nanoTime);
+	}
+
+	NegativeCache(long ttlMs, int capacity, LongSupplier nanoClock) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+		this.capacity = capacity;
+		this.nanoClock = nanoClock;
+	}
+
+	boolean isEnabled() {
+		return ttlNanos > 0 && capacity > 0;
+	}
+
+	/**
+	 * @return why the schema for {@code key} could not be copied, or null when it was not, or long enough ago
+	 */
+	TransferMetrics.Failure get(long key) {
+		if (entries.isEmpty()) {
+			return null;
+		}
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAtNanos - nanoClock.getAsLong() <= 0) {
+			entries.remove(key, entry);
+			return null;
+		}
+		return entry.cause;
+	}
+
+	/**
+	 * Remembers that the schema for {@code key} could not be copied, unless {@code key} is
+	 * {@link SchemaIdCache#NO_KEY}, which stands for no key in particular.
+	 */
+	void put(long key, TransferMetrics.Failure cause) {
+		if (!isEnabled() || key == SchemaIdCache.NO_KEY) {
+			return;
+		}
+		final long now = nanoClock.getAsLong();
+		if (entries.size() >= capacity && !entries.containsKey(key)) {
+			makeRoom(now);
+		}
+		entries.put(key, new Entry(now + ttlNanos, cause));
+	}
+
+	private synchronized void makeRoom(long now) {
+		Long soonest = null;
+		long soonestExpiry = Long.MAX_VALUE;
+		for (final Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+			final Map.Entry<Long, Entry> e = it.next();
+			final long expiresAt = e.getValue().expiresAtNanos;
+			if (expiresAt - now <= 0) {
+				it.remove();
+			} else if (soonest == null || expiresAt - soonestExpiry < 0) {
+				soonest = e.getKey();
+				soonestExpiry = expiresAt;
+			}
+		}
+		if (entries.size() >= capacity && soonest != null) {
+			entries.remove(soonest);
+		}
+	}
+
+	int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,209 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.apache.kafka.connect.errors.RetriableException;
+
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+
+/**
+ * Spreads reads over the nodes of a registry, so the first of its URLs no longer takes all the load and its tail
+ * latency no longer becomes ours. {@link io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient} only
+ * moves on to the next URL when one fails.
+ *
+ * <p>Each node has its own client. A read goes to the node with the fewest outstanding requests, and among those
+ * to the one with the lowest moving average latency. Nodes not measured yet count as fastest, so every node gets
+ * tried. Transient failures weigh on a node's average as if the request had taken a second longer. Each node also
+ * has its own {@link CircuitBreaker}, so one failing node does not stop reads from the others, and nodes whose
+ * breaker refuses calls are only read from when every node's does.</p>
+ *
+ * <p>A read still unanswered after the hedge delay is sent to a second node as well, and the first answer wins.
+ * This cuts off the slowest reads at the cost of a few duplicates, and needs registry calls to run on the registry
+ * executor.</p>
+ */
+class RegistryEndpoints {
+	// weight of the newest sample in a node's moving average
+	private static final double EWMA_WEIGHT = 0.2;
+	private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	static final class Endpoint {
+		private final String url;
+		private final SchemaRegistryClient client;
+		private final CircuitBreaker breaker;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		// guarded by this
+		private double averageNanos;
+
+		Endpoint(String url, SchemaRegistryClient client, CircuitBreaker breaker) {
+			this.url = url;
+			this.client = client;
+			this.breaker = breaker;
+		}
+
+		String url() {
+			return url;
+		}
+
+		SchemaRegistryClient client() {
+			return client;
+		}
+
+		CircuitBreaker breaker() {
+			return breaker;
+		}
+
+		int outstanding() {
+			return outstanding.get();
+		}
+
+		synchronized double averageNanos() {
+			return averageNanos;
+		}
+
+		synchronized void record(long nanos) {
+			averageNanos = averageNanos == 0 ? nanos : averageNanos + EWMA_WEIGHT * (nanos - averageNanos);
+		}
+	}
+
+	private final List<Endpoint> endpoints;
+	private final LongSupplier hedgeDelayMs;
+	private final Supplier<ScheduledExecutorService> scheduler;
+	private final LongAdder hedges = new LongAdder();
+
+	/**
+	 * @param hedgeDelayMs asked before every read, a delay of 0 or less sends none to a second node
+	 * @param scheduler where hedge delays are waited out, only asked for when a read is hedged
+	 */
+	RegistryEndpoints(List<Endpoint> endpoints, LongSupplier hedgeDelayMs, Supplier<ScheduledExecutorService> scheduler) {
+		this.endpoints = new ArrayList<>(endpoints);
+		this.hedgeDelayMs = hedgeDelayMs;
+		this.scheduler = scheduler;
+	}
+
+	List<Endpoint> endpoints() {
+		return endpoints;
+	}
+
+	/**
+	 * @return the number of reads sent to a second node
+	 */
+	long hedges() {
+		return hedges.sum();
+	}
+
+	/**
+	 * @return the state of the node whose breaker is in the best state: closed while any is, then half-open while
+	 * any is
+	 */
+	CircuitBreaker.State state() {
+		CircuitBreaker.State best = CircuitBreaker.State.OPEN;
+		for (final Endpoint endpoint : endpoints) {
+			final CircuitBreaker.State state = endpoint.breaker.state();
+			if (state == CircuitBreaker.State.CLOSED) {
+				return state;
+			}
+			if (state == CircuitBreaker.State.HALF_OPEN) {
+				best = state;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the node to read from next, other than {@code exclude} unless it is the only one
+	 */
+	Endpoint select(Endpoint exclude) {
+		Endpoint best = null;
+		boolean bestRefuses = false;
+		for (final Endpoint endpoint : endpoints) {
+			if (endpoint == exclude) {
+				continue;
+			}
+			final boolean refuses = endpoint.breaker.refusesCalls();
+			if (best == null || bestRefuses && !refuses
+					|| bestRefuses == refuses && (endpoint.outstanding() < best.outstanding()
+							|| endpoint.outstanding() == best.outstanding() && endpoint.averageNanos() < best.averageNanos())) {
+				best = endpoint;
+				bestRefuses = refuses;
+			}
+		}
+		return best != null ? best : exclude;
+	}
+
+	/**
+	 * Makes {@code read} against the best node, and against the next best as well if the first has not answered
+	 * within the hedge delay.
+	 *
+	 * @return the first answer, or the first failure that another node would answer the same way. Transient
+	 * failures only fail the read once every node it was sent to failed.
+	 */
+	<T> CompletableFuture<T> read(Function<Endpoint, CompletableFuture<T>> read) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final AtomicInteger running = new AtomicInteger(1);
+		final Endpoint primary = select(null);
+		attempt(primary, read, result, running);
+		final long delayMs = endpoints.size() > 1 && !result.isDone() ? hedgeDelayMs.getAsLong() : 0;
+		if (delayMs <= 0) {
+			return result;
+		}
+		final ScheduledFuture<?> hedge;
+		try {
+			hedge = scheduler.get().schedule(() -> {
+				if (result.isDone()) {
+					return;
+				}
+				running.incrementAndGet();
+				hedges.increment();
+				attempt(select(primary), read, result, running);
+			}, delayMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			return result;
+		}
+		result.whenComplete((value, e) -> hedge.cancel(false));
+		return result;
+	}
+
+	private static <T> void attempt(Endpoint endpoint, Function<Endpoint, CompletableFuture<T>> read,
+			CompletableFuture<T> result, AtomicInteger running) {
+		endpoint.outstanding.incrementAndGet();
+		final long start = System.nanoTime();
+		CompletableFuture<T> call;
+		try {
+			call = read.apply(endpoint);
+		} catch (RuntimeException e) {
+			call = new CompletableFuture<>();
+			call.completeExceptionally(e);
+		}
+		call.whenComplete((value, e) -> {
+			endpoint.outstanding.decrementAndGet();
+			final long elapsed = System.nanoTime() - start;
+			if (e == null) {
+				endpoint.record(elapsed);
+				result.complete(value);
+				return;
+			}
+			final Throwable cause = AsyncRegistryClient.unwrap(e);
+			final boolean retriable = RetryPolicy.isRetriable(cause);
+			if (retriable) {
+				endpoint.record(elapsed + FAILURE_PENALTY_NANOS);
+			}
+			// a refusal by the circuit breaker says nothing about the other read still running
+			final boolean definitive = !retriable && !(cause instanceof RetriableException);
+			if (running.decrementAndGet() == 0 || definitive) {
+				result.completeExceptionally(cause);
+			}
+		});
+	}
+}
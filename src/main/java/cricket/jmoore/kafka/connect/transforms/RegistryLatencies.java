@@ -0,0 +1,104 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms of the registry round-trips made by one {@link RegistryPairContext}, one per registry and
+ * operation, so every transform instance sharing the context contributes to the same distribution.
+ *
+ * <p>Round-trips are recorded in microseconds into HdrHistogram {@link Recorder}s, which never block the recording
+ * thread. Readers drain them into a cumulative histogram, read by the metrics, and an interval histogram that
+ * {@link #logLine} resets, so each log line describes only the round-trips since the previous one.</p>
+ */
+class RegistryLatencies {
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	enum Operation {
+		SOURCE_FETCH("source-fetch-latency", "source getSchemaById"),
+		DESTINATION_REGISTER("destination-register-latency", "destination register");
+
+		final String metricPrefix;
+		final String label;
+
+		Operation(String metricPrefix, String label) {
+			this.metricPrefix = metricPrefix;
+			this.label = label;
+		}
+	}
+
+	private final Recorder[] recorders = new Recorder[Operation.values().length];
+	// guarded by this
+	private final Histogram[] totals = new Histogram[Operation.values().length];
+	private final Histogram[] sinceLastLog = new Histogram[Operation.values().length];
+	private final Histogram[] recycled = new Histogram[Operation.values().length];
+
+	RegistryLatencies() {
+		for (final Operation op : Operation.values()) {
+			recorders[op.ordinal()] = new Recorder(SIGNIFICANT_DIGITS);
+			totals[op.ordinal()] = new Histogram(SIGNIFICANT_DIGITS);
+			sinceLastLog[op.ordinal()] = new Histogram(SIGNIFICANT_DIGITS);
+		}
+	}
+
+	void record(Operation op, long nanos) {
+		recorders[op.ordinal()].recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	/**
+	 * @return the latency in milliseconds at {@code percentile} of every round-trip recorded so far, 0 when there
+	 * was none
+	 */
+	synchronized double percentileMs(Operation op, double percentile) {
+		drain(op);
+		return totals[op.ordinal()].getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	synchronized double maxMs(Operation op) {
+		drain(op);
+		return totals[op.ordinal()].getMaxValue() / 1000.0;
+	}
+
+	/**
+	 * @return the number of round-trips recorded so far
+	 */
+	synchronized long count(Operation op) {
+		drain(op);
+		return totals[op.ordinal()].getTotalCount();
+	}
+
+	synchronized double meanMs(Operation op) {
+		drain(op);
+		return totals[op.ordinal()].getMean() / 1000.0;
+	}
+
+	/**
+	 * @return a summary of the round-trips of {@code op} since the previous call, or null when there was none
+	 */
+	synchronized String logLine(Operation op) {
+		drain(op);
+		final Histogram interval = sinceLastLog[op.ordinal()];
+		if (interval.getTotalCount() == 0) {
+			return null;
+		}
+		final String line = String.format("%s latency: count=%d p50=%.1fms p99=%.1fms p999=%.1fms max=%.1fms",
+				op.label, interval.getTotalCount(),
+				interval.getValueAtPercentile(50) / 1000.0,
+				interval.getValueAtPercentile(99) / 1000.0,
+				interval.getValueAtPercentile(99.9) / 1000.0,
+				interval.getMaxValue() / 1000.0);
+		interval.reset();
+		return line;
+	}
+
+	private void drain(Operation op) {
+		final int i = op.ordinal();
+		final Histogram interval = recorders[i].getIntervalHistogram(recycled[i]);
+		totals[i].add(interval);
+		sinceLastLog[i].add(interval);
+		recycled[i] = interval;
+	}
+}
@@ -0,0 +1,629 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.SchemaProvider;
+import io.confluent.kafka.schemaregistry.avro.AvroSchemaProvider;
+import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import io.confluent.kafka.schemaregistry.json.JsonSchemaProvider;
+import io.confluent.kafka.schemaregistry.protobuf.ProtobufSchemaProvider;
+import io.confluent.kafka.serializers.subject.TopicNameStrategy;
+
+/**
+ * Everything a {@link SchemaRegistryTransfer} needs to translate ids between one source and one destination
+ * registry: the two clients and the id mapping learned so far.
+ *
+ * <p>Cache misses reach the registries through {@link #source} and {@link #dest}. With {@code registry.threads}
+ * above 0 their calls run on a pool of that many threads shared by both registries, otherwise on the calling
+ * thread.</p>
+ *
+ * <p>By default every transform instance gets its own context. With {@code shared.context=true}, instances in
+ * the same JVM that point at the same registries with the same credentials share one reference-counted context,
+ * so a worker running many tasks warms one mapping and holds one pair of HTTP clients. Instances only share a
+ * mapping if they name destination subjects with the same strategies and preserve ids the same way, as otherwise
+ * the same source id maps to different subjects or ids.</p>
+ *
+ * <p>A context can also persist its mapping with {@link IdMappingSnapshot}, restoring it when enabled and writing
+ * it periodically and once more when the last user releases the context, and share it through an
+ * {@link IdMappingStore}.</p>
+ */
+class RegistryPairContext {
+	private static final Logger log = LoggerFactory.getLogger(RegistryPairContext.class);
+
+	private static final String KEY_SUFFIX = "-key";
+	private static final String VALUE_SUFFIX = "-value";
+	private static final String IMPORT_MODE = "IMPORT";
+	// how many topics get an index, and how many registrations are remembered, unless schema.capacity is larger
+	static final int MAX_TOPICS = 100_000;
+	static final int MAX_REGISTRATIONS = 100_000;
+
+	// guarded by itself
+	private static final Map<Key, RegistryPairContext> SHARED = new HashMap<>();
+
+	/**
+	 * Creates the client for one side of the pair. Tests and benchmarks substitute in-process registries here.
+	 *
+	 * <p>The default client understands Avro, Protobuf and JSON Schema, so schemas of every type can be fetched
+	 * from the source and registered with the destination.</p>
+	 */
+	interface ClientFactory {
+		ClientFactory DEFAULT = (urls, schemaCapacity, props) ->
+				new CachedSchemaRegistryClient(urls, schemaCapacity, schemaProviders(), props);
+
+		SchemaRegistryClient create(List<String> urls, int schemaCapacity, Map<String, String> props);
+	}
+
+	/**
+	 * @return new provider instances, since each client configures its own
+	 */
+	static List<SchemaProvider> schemaProviders() {
+		return Arrays.asList(new AvroSchemaProvider(), new ProtobufSchemaProvider(), new JsonSchemaProvider());
+	}
+
+	final SchemaRegistryClient sourceClient;
+	final SchemaRegistryClient destClient;
+	final AsyncRegistryClient source;
+	final AsyncRegistryClient dest;
+	// caches from the source registry to the destination registry
+	final SchemaIdCache schemaCache;
+	// source ids already registered per destination subject, consulted on a schemaCache miss
+	final SubjectRegistrations subjectRegistrations;
+	// source ids imported under their translated id, taking the place of both of the above when ids are preserved
+	final ImportedIds importedIds = new ImportedIds();
+	// misses currently being resolved, so concurrent records with the same key wait rather than repeat the work
+	final Map<Long, CompletableFuture<Integer>> inFlight = new ConcurrentHashMap<>();
+	final RegistryLatencies latencies = new RegistryLatencies();
+	// null when the destination registry assigns ids
+	final IdTranslation idTranslation;
+	// referenced schemas already copied to the destination registry
+	final SchemaReferenceResolver referenceResolver;
+
+	// small numbers standing in for topic names inside schemaCache keys, handed out to the first maxTopics topics
+	private final Map<String, Integer> topicIndexes = new ConcurrentHashMap<>();
+	private final int maxTopics;
+	private final AtomicInteger nextTopicIndex = new AtomicInteger();
+	private final AtomicBoolean topicsExhausted = new AtomicBoolean();
+	private final AtomicBoolean warmupClaimed = new AtomicBoolean();
+	// destination subjects known to be in IMPORT mode
+	private final Set<String> importSubjects = ConcurrentHashMap.newKeySet();
+
+	private final Key key;
+	// null when registry calls are made on the calling thread
+	private final ExecutorService registryExecutor;
+	// guarded by SHARED
+	private int references;
+
+	private volatile IdMappingStore store;
+
+	// guarded by this
+	private Path snapshotPath;
+	private ScheduledExecutorService snapshotScheduler;
+	private long snapshotModifications;
+	private ScheduledExecutorService latencyLogger;
+	private ScheduledExecutorService retryScheduler;
+	private boolean loadBalancingEnabled;
+
+	private RegistryPairContext(Key key) {
+		this.key = key;
+		this.schemaCache = new SchemaIdCache(key.schemaCapacity);
+		this.subjectRegistrations = new SubjectRegistrations(Math.max(key.schemaCapacity, MAX_REGISTRATIONS));
+		this.maxTopics = Math.min(Math.max(key.schemaCapacity, MAX_TOPICS), SchemaIdCache.MAX_TOPIC_INDEX + 1);
+		this.sourceClient = key.clientFactory.create(key.sourceUrls, key.schemaCapacity, key.sourceProps);
+		this.destClient = key.clientFactory.create(key.destUrls, key.schemaCapacity, key.destProps);
+		this.registryExecutor = key.registryThreads > 0 ? newRegistryExecutor(key.registryThreads) : null;
+		final Executor executor = registryExecutor != null ? registryExecutor : Runnable::run;
+		this.source = new AsyncRegistryClient(sourceClient, executor, new CircuitBreaker("Source"));
+		this.dest = new AsyncRegistryClient(destClient, executor, new CircuitBreaker("Destination"));
+		this.idTranslation = key.preservedIdOffset != null ? IdTranslation.offset(key.preservedIdOffset) : null;
+		this.referenceResolver = new SchemaReferenceResolver(source, dest, idTranslation != null ? this::importSchema : null);
+	}
+
+	private static ExecutorService newRegistryExecutor(int threads) {
+		final AtomicInteger n = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			final Thread t = new Thread(r, "schema-registry-transfer-registry-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Creates a context that is private to the caller.
+	 */
+	static RegistryPairContext create(List<String> sourceUrls, Map<String, String> sourceProps,
+			List<String> destUrls, Map<String, String> destProps, int schemaCapacity, int registryThreads,
+			ClientFactory clientFactory, List<String> subjectNameStrategies, Integer preservedIdOffset) {
+		final RegistryPairContext context = new RegistryPairContext(new Key(sourceUrls, sourceProps, destUrls, destProps,
+				schemaCapacity, registryThreads, clientFactory, subjectNameStrategies, preservedIdOffset));
+		context.references = 1;
+		return context;
+	}
+
+	/**
+	 * Returns the JVM-wide context for this registry pair, creating it on first use. Each call must be matched by
+	 * a call to {@link #release()}.
+	 *
+	 * @param subjectNameStrategies the class names of the destination key and value subject name strategies
+	 * @param preservedIdOffset the offset ids are imported under, or null when the destination assigns ids
+	 */
+	static RegistryPairContext acquire(List<String> sourceUrls, Map<String, String> sourceProps,
+			List<String> destUrls, Map<String, String> destProps, int schemaCapacity, int registryThreads,
+			ClientFactory clientFactory, List<String> subjectNameStrategies, Integer preservedIdOffset) {
+		final Key key = new Key(sourceUrls, sourceProps, destUrls, destProps, schemaCapacity, registryThreads, clientFactory,
+				subjectNameStrategies, preservedIdOffset);
+		synchronized (SHARED) {
+			RegistryPairContext context = SHARED.get(key);
+			if (context == null) {
+				log.debug("Creating shared registry context for {} -> {}", key.sourceUrls, key.destUrls);
+				context = new RegistryPairContext(key);
+				SHARED.put(key, context);
+			}
+			context.references++;
+			return context;
+		}
+	}
+
+	/**
+	 * Gives up one reference to the context. Once the last reference is released, a final snapshot is written and
+	 * a shared context is dropped, so the next {@link #acquire} starts over.
+	 */
+	void release() {
+		synchronized (SHARED) {
+			if (references == 0 || --references > 0) {
+				return;
+			}
+			if (SHARED.get(key) == this) {
+				log.debug("Releasing shared registry context for {} -> {}", key.sourceUrls, key.destUrls);
+				SHARED.remove(key);
+			}
+		}
+		stopSnapshots();
+		stopLatencyLogging();
+		stopRetries();
+		if (registryExecutor != null) {
+			registryExecutor.shutdown();
+		}
+		final IdMappingStore s = store;
+		if (s != null) {
+			store = null;
+			s.close();
+		}
+	}
+
+	/**
+	 * Creates the context's store, replays it and from then on publishes newly learned mappings to it. Only the
+	 * first call on a context has any effect.
+	 */
+	synchronized void attachStore(Supplier<IdMappingStore> factory) {
+		if (store != null) {
+			return;
+		}
+		final IdMappingStore s = factory.get();
+		s.start(this::restore);
+		store = s;
+	}
+
+	/**
+	 * Passes a mapping this worker learned from the registries on to the store, if any.
+	 */
+	void publish(String subject, int sourceId, int destId) {
+		final IdMappingStore s = store;
+		if (s != null) {
+			s.put(subject, sourceId, destId);
+		}
+	}
+
+	/**
+	 * Restores the mapping from {@code path} and keeps writing it back every {@code intervalMs} milliseconds, or
+	 * only on release when the interval is 0. Only the first call on a context has any effect.
+	 */
+	synchronized void enableSnapshots(Path path, long intervalMs) {
+		if (snapshotPath != null) {
+			return;
+		}
+		snapshotPath = path;
+		IdMappingSnapshot.load(path, this);
+		snapshotModifications = mappingModifications();
+		if (intervalMs > 0) {
+			snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread t = new Thread(r, "schema-registry-transfer-snapshot");
+				t.setDaemon(true);
+				return t;
+			});
+			snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void writeSnapshot() {
+		final long modifications = mappingModifications();
+		if (snapshotPath == null || modifications == snapshotModifications) {
+			return;
+		}
+		try {
+			IdMappingSnapshot.write(snapshotPath, this);
+			snapshotModifications = modifications;
+			log.debug("Wrote schema id snapshot {}", snapshotPath);
+		} catch (IOException e) {
+			log.warn("Unable to write schema id snapshot {}", snapshotPath, e);
+		}
+	}
+
+	private long mappingModifications() {
+		// a topic can map to a subject that was registered for another topic, which adds only a cache entry
+		return subjectRegistrations.modifications() + schemaCache.modifications() + importedIds.modifications();
+	}
+
+	/**
+	 * @return a checksum of the normalized source and destination URLs, which tells snapshots of different
+	 * registry pairs apart without writing the URLs, and any credentials in them, to disk
+	 */
+	int pairFingerprint() {
+		final CRC32 crc = new CRC32();
+		crc.update((String.join(",", key.sourceUrls) + " -> " + String.join(",", key.destUrls))
+				.getBytes(StandardCharsets.UTF_8));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * @return the class names of the destination key and then the value subject name strategy
+	 */
+	List<String> subjectNameStrategies() {
+		return Collections.unmodifiableList(key.subjectNameStrategies);
+	}
+
+	/**
+	 * @return the offset ids are imported under, or null when the destination assigns ids
+	 */
+	Integer preservedIdOffset() {
+		return key.preservedIdOffset;
+	}
+
+	/**
+	 * Logs the registry latencies of the last {@code intervalMs} milliseconds every {@code intervalMs}
+	 * milliseconds. Only the first call on a context has any effect.
+	 */
+	synchronized void enableLatencyLogging(long intervalMs) {
+		if (latencyLogger != null) {
+			return;
+		}
+		latencyLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread t = new Thread(r, "schema-registry-transfer-latency");
+			t.setDaemon(true);
+			return t;
+		});
+		latencyLogger.scheduleWithFixedDelay(this::logLatencies, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void logLatencies() {
+		for (final RegistryLatencies.Operation op : RegistryLatencies.Operation.values()) {
+			final String line = latencies.logLine(op);
+			if (line != null) {
+				log.info("{} -> {} {}", key.sourceUrls, key.destUrls, line);
+			}
+		}
+	}
+
+	/**
+	 * Sets up the circuit breakers of both registries. Only the first call on a context has any effect.
+	 */
+	void configureCircuitBreakers(int failureThreshold, long openMs) {
+		source.breaker().configure(failureThreshold, openMs);
+		dest.breaker().configure(failureThreshold, openMs);
+	}
+
+	/**
+	 * Fetches source schemas from each source registry URL directly rather than through {@link #sourceClient}, and
+	 * sends a fetch to a second node when the first has not answered within {@code hedgeDelayMs} milliseconds. A
+	 * negative delay follows the p95 of source fetches so far, and 0 never hedges. Only the first call on a context
+	 * has any effect, and none when there is a single source URL.
+	 */
+	synchronized void enableLoadBalancing(long hedgeDelayMs) {
+		if (loadBalancingEnabled || key.sourceUrls.size() < 2) {
+			return;
+		}
+		loadBalancingEnabled = true;
+		final List<RegistryEndpoints.Endpoint> endpoints = new ArrayList<>(key.sourceUrls.size());
+		for (final String url : key.sourceUrls) {
+			endpoints.add(new RegistryEndpoints.Endpoint(url,
+					key.clientFactory.create(Collections.singletonList(url), key.schemaCapacity, key.sourceProps),
+					source.breaker().sibling("Source node " + url)));
+		}
+		final LongSupplier delayMs = hedgeDelayMs >= 0
+				? () -> hedgeDelayMs
+				: () -> (long) Math.ceil(latencies.percentileMs(RegistryLatencies.Operation.SOURCE_FETCH, 95));
+		log.debug("Spreading schema fetches over {}", key.sourceUrls);
+		source.balanceReads(new RegistryEndpoints(endpoints, delayMs, this::retryScheduler));
+	}
+
+	/**
+	 * @return the thread that times the backoffs of failed registry calls, the deadlines of registry calls and the
+	 * delays of hedged fetches, started the first time one is needed. It only hands the calls themselves over to
+	 * {@link #retryExecutor()}.
+	 */
+	synchronized ScheduledExecutorService retryScheduler() {
+		if (retryScheduler == null) {
+			final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+				final Thread t = new Thread(r, "schema-registry-transfer-retry");
+				t.setDaemon(true);
+				return t;
+			});
+			// most deadlines are cancelled once their call answers
+			scheduler.setRemoveOnCancelPolicy(true);
+			retryScheduler = scheduler;
+		}
+		return retryScheduler;
+	}
+
+	/**
+	 * @return the executor registry calls are made on, or null when they are made on the calling thread
+	 */
+	Executor retryExecutor() {
+		return registryExecutor;
+	}
+
+	private synchronized void stopRetries() {
+		if (retryScheduler != null) {
+			retryScheduler.shutdownNow();
+			retryScheduler = null;
+		}
+	}
+
+	private synchronized void stopLatencyLogging() {
+		if (latencyLogger != null) {
+			latencyLogger.shutdownNow();
+			latencyLogger = null;
+		}
+	}
+
+	private synchronized void stopSnapshots() {
+		if (snapshotScheduler != null) {
+			snapshotScheduler.shutdownNow();
+			snapshotScheduler = null;
+		}
+		writeSnapshot();
+	}
+
+	/**
+	 * Puts {@code subject} of the destination registry in IMPORT mode, which lets schemas be registered under an
+	 * explicit id, unless it already is. Blocks on the destination registry the first time for each subject.
+	 */
+	void ensureImportMode(String subject) throws IOException, RestClientException {
+		if (importSubjects.contains(subject)) {
+			return;
+		}
+		String mode = null;
+		try {
+			mode = destClient.getMode(subject);
+		} catch (RestClientException e) {
+			log.trace("Subject {} has no mode of its own in destination registry", subject);
+		}
+		if (!IMPORT_MODE.equals(mode)) {
+			log.info("Switching subject {} of destination registry to {} mode", subject, IMPORT_MODE);
+			destClient.setMode(IMPORT_MODE, subject);
+		}
+		importSubjects.add(subject);
+	}
+
+	/**
+	 * Registers {@code schema} under {@code subject} with the id {@code sourceId} is imported under, after putting
+	 * the subject in IMPORT mode, unless it was imported there already. Blocks on the destination registry.
+	 *
+	 * @param version the version to import the schema as, or 0 to let the destination registry pick the next one
+	 * @return the destination id
+	 */
+	int importSchema(String subject, ParsedSchema schema, int version, int sourceId) throws IOException, RestClientException {
+		final int importId = idTranslation.destinationId(sourceId);
+		if (importId == SchemaIdCache.NO_ID) {
+			throw new ConnectException(String.format("Schema id %d cannot be imported under subject %s, it is too large to offset", sourceId,
+					subject));
+		}
+		if (importedIds.contains(subject, sourceId)) {
+			return importId;
+		}
+		ensureImportMode(subject);
+		final int destId = destClient.register(subject, schema, version, importId);
+		if (destId != importId) {
+			throw new ConnectException(String.format("Destination registry registered schema id %d under id %d instead", importId, destId));
+		}
+		importedIds.add(subject, sourceId);
+		return destId;
+	}
+
+	/**
+	 * @return true for exactly one caller, which then owns warming up this context.
+	 */
+	boolean claimWarmup() {
+		return warmupClaimed.compareAndSet(false, true);
+	}
+
+	/**
+	 * Records a mapping learned outside of the record path, e.g. during warm-up or from a store.
+	 */
+	void restore(String subject, int sourceId, int destId) {
+		subjectRegistrations.put(subject, sourceId, destId);
+		final long cacheKey = subjectCacheKey(subject, sourceId);
+		if (cacheKey != SchemaIdCache.NO_KEY) {
+			schemaCache.put(cacheKey, destId);
+		}
+	}
+
+	/**
+	 * Records that {@code sourceId} was imported under {@code subject} outside of the record path, e.g. during
+	 * warm-up or as a referenced schema. Imported ids are neither cached as mappings nor published, since the
+	 * destination id follows from the source id.
+	 */
+	void restoreImport(String subject, int sourceId) {
+		importedIds.add(subject, sourceId);
+		importedIds.add(subjectCacheKey(subject, sourceId));
+	}
+
+	/**
+	 * @return the {@link SchemaIdCache} key of the records whose schema {@code subject} holds, or
+	 * {@link SchemaIdCache#NO_KEY} when the subject does not tell their topic
+	 */
+	private long subjectCacheKey(String subject, int sourceId) {
+		// TopicNameStrategy subjects tell us the topic, so those records can hit the cache directly. Any other
+		// strategy may name a subject "-key" or "-value" for some other reason, so those are left to the misses.
+		if (subject.endsWith(KEY_SUFFIX) && namesByTopic(true)) {
+			return cacheKey(subject.substring(0, subject.length() - KEY_SUFFIX.length()), true, sourceId);
+		} else if (subject.endsWith(VALUE_SUFFIX) && namesByTopic(false)) {
+			return cacheKey(subject.substring(0, subject.length() - VALUE_SUFFIX.length()), false, sourceId);
+		}
+		return SchemaIdCache.NO_KEY;
+	}
+
+	/**
+	 * Records the destination id that the records of {@code topic} with {@code sourceId} were translated to.
+	 */
+	void restoreTopic(String topic, boolean isKey, int sourceId, int destId) {
+		final long cacheKey = cacheKey(topic, isKey, sourceId);
+		if (cacheKey != SchemaIdCache.NO_KEY) {
+			schemaCache.put(cacheKey, destId);
+		}
+	}
+
+	private boolean namesByTopic(boolean isKey) {
+		return TopicNameStrategy.class.getName().equals(key.subjectNameStrategies.get(isKey ? 0 : 1));
+	}
+
+	/**
+	 * @return the {@link SchemaIdCache} key of a record, or {@link SchemaIdCache#NO_KEY} when its topic came after
+	 * the first {@link #MAX_TOPICS} and so has no index
+	 */
+	long cacheKey(String topic, boolean isKey, int sourceId) {
+		final int index = topicIndex(topic);
+		return index < 0 ? SchemaIdCache.NO_KEY : SchemaIdCache.key(index, isKey, sourceId);
+	}
+
+	private int topicIndex(String topic) {
+		final Integer index = topicIndexes.get(topic);
+		if (index != null) {
+			return index;
+		}
+		if (topicIndexes.size() >= maxTopics) {
+			if (topicsExhausted.compareAndSet(false, true)) {
+				log.warn("Seen more than {} topics, the schema ids of further topics are translated without caching", maxTopics);
+			}
+			return -1;
+		}
+		return topicIndexes.computeIfAbsent(topic, t -> {
+			final int next = nextTopicIndex.getAndIncrement();
+			// concurrent first sightings may overshoot the bound by a few, which key() would not accept past its range
+			return next < maxTopics ? next : -1;
+		});
+	}
+
+	/**
+	 * @return the topic of every index handed out by {@link #topicIndex}
+	 */
+	Map<Integer, String> topicNames() {
+		final Map<Integer, String> names = new HashMap<>();
+		topicIndexes.forEach((topic, index) -> names.put(index, topic));
+		return names;
+	}
+
+	static int sharedCount() {
+		synchronized (SHARED) {
+			return SHARED.size();
+		}
+	}
+
+	private static final class Key {
+		private final List<String> sourceUrls;
+		private final Map<String, String> sourceProps;
+		private final List<String> destUrls;
+		private final Map<String, String> destProps;
+		private final int schemaCapacity;
+		private final int registryThreads;
+		private final ClientFactory clientFactory;
+		private final List<String> subjectNameStrategies;
+		private final Integer preservedIdOffset;
+
+		Key(List<String> sourceUrls, Map<String, String> sourceProps,
+				List<String> destUrls, Map<String, String> destProps, int schemaCapacity, int registryThreads,
+				ClientFactory clientFactory, List<String> subjectNameStrategies, Integer preservedIdOffset) {
+			this.sourceUrls = normalize(sourceUrls);
+			this.sourceProps = new HashMap<>(sourceProps);
+			this.destUrls = normalize(destUrls);
+			this.destProps = new HashMap<>(destProps);
+			this.schemaCapacity = schemaCapacity;
+			this.registryThreads = registryThreads;
+			this.clientFactory = clientFactory;
+			this.subjectNameStrategies = new ArrayList<>(subjectNameStrategies);
+			this.preservedIdOffset = preservedIdOffset;
+		}
+
+		private static List<String> normalize(List<String> urls) {
+			final List<String> normalized = new ArrayList<>(urls.size());
+			for (final String url : urls) {
+				String u = url.trim();
+				while (u.endsWith("/")) {
+					u = u.substring(0, u.length() - 1);
+				}
+				normalized.add(u);
+			}
+			return normalized;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			final Key other = (Key) o;
+			return schemaCapacity == other.schemaCapacity &&
+					registryThreads == other.registryThreads &&
+					clientFactory == other.clientFactory &&
+					Objects.equals(sourceUrls, other.sourceUrls) &&
+					Objects.equals(sourceProps, other.sourceProps) &&
+					Objects.equals(destUrls, other.destUrls) &&
+					Objects.equals(destProps, other.destProps) &&
+					Objects.equals(subjectNameStrategies, other.subjectNameStrategies) &&
+					Objects.equals(preservedIdOffset, other.preservedIdOffset);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(sourceUrls, sourceProps, destUrls, destProps, schemaCapacity, registryThreads, clientFactory,
+					subjectNameStrategies, preservedIdOffset);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+/**
+ * Copies every subject of the source registry to the destination before the first record arrives, so that
+ * records after a restart or rebalance find their ids already mapped instead of paying for the round-trips
+ * inside {@code apply()}.
+ *
+ * <p>Subjects are copied under their source name, which matches what the transform itself registers as long as
+ * topics are not renamed before it and both registries name subjects with the same strategies. Subjects are
+ * fetched concurrently, and whatever is not done by the deadline is left to the regular miss path.</p>
+ *
+ * <p>When ids are preserved, each version is imported under its translated source id and its source version.</p>
+ */
+class RegistryWarmup {
+	private static final Logger log = LoggerFactory.getLogger(RegistryWarmup.class);
+
+	private final RegistryPairContext context;
+	private final int concurrency;
+	private final long timeoutMs;
+	// null when the destination registry assigns ids
+	private final IdTranslation idTranslation;
+	private final AtomicInteger copied = new AtomicInteger();
+
+	RegistryWarmup(RegistryPairContext context, int concurrency, long timeoutMs, IdTranslation idTranslation) {
+		this.context = context;
+		this.concurrency = concurrency;
+		this.timeoutMs = timeoutMs;
+		this.idTranslation = idTranslation;
+	}
+
+	/**
+	 * Blocks until all subjects have been copied or the timeout elapses, whichever comes first.
+	 *
+	 * @return the number of schema versions that were mapped
+	 */
+	int run() {
+		final long start = System.currentTimeMillis();
+		final Collection<String> subjects;
+		try {
+			subjects = context.sourceClient.getAllSubjects();
+		} catch (IOException | RestClientException e) {
+			log.warn("Unable to list subjects in source registry, skipping warm-up", e);
+			return 0;
+		}
+
+		log.info("Warming up schema id mapping from {} source subjects", subjects.size());
+		final ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+			final Thread t = new Thread(r, "schema-registry-transfer-warmup");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			for (final String subject : subjects) {
+				executor.execute(() -> copySubject(subject));
+			}
+			executor.shutdown();
+			if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+				log.warn("Warm-up did not finish within {} ms, remaining schemas will be copied on first use", timeoutMs);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted during warm-up, remaining schemas will be copied on first use");
+		} finally {
+			executor.shutdownNow();
+		}
+		log.info("Warm-up mapped {} schema versions in {} ms", copied.get(), System.currentTimeMillis() - start);
+		return copied.get();
+	}
+
+	private void copySubject(String subject) {
+		final List<Integer> versions;
+		try {
+			versions = context.sourceClient.getAllVersions(subject);
+		} catch (IOException | RestClientException e) {
+			log.warn("Unable to list versions of subject {} in source registry", subject, e);
+			return;
+		}
+		for (final Integer version : versions) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			try {
+				final SchemaMetadata metadata = context.sourceClient.getSchemaMetadata(subject, version);
+				final int sourceId = metadata.getId();
+				if (idTranslation != null && context.importedIds.contains(subject, sourceId)) {
+					// e.g. imported as the reference of a schema copied before, which left its topic to us
+					context.restoreImport(subject, sourceId);
+					continue;
+				}
+				if (idTranslation == null && context.subjectRegistrations.get(subject, sourceId) != SchemaIdCache.NO_ID) {
+					continue;
+				}
+				// looked up by id so the source client caches it for the miss path too
+				final int importId = idTranslation != null ? idTranslation.destinationId(sourceId) : SchemaIdCache.NO_ID;
+				if (idTranslation != null && importId == SchemaIdCache.NO_ID) {
+					log.warn("Unable to import version {} of subject {} during warm-up, its id {} is too large to offset", version, subject, sourceId);
+					continue;
+				}
+				final ParsedSchema schema = context.referenceResolver.forDestination(context.sourceClient.getSchemaById(sourceId)).join();
+				if (idTranslation != null) {
+					context.importSchema(subject, schema, metadata.getVersion(), sourceId);
+					// like on the record path, an imported id is remembered as done rather than mapped
+					context.restoreImport(subject, sourceId);
+				} else {
+					final int destId = context.destClient.register(subject, schema);
+					context.restore(subject, sourceId, destId);
+					context.publish(subject, sourceId, destId);
+				}
+				copied.incrementAndGet();
+			} catch (IOException | RestClientException e) {
+				log.warn("Unable to copy version {} of subject {} during warm-up", version, subject, e);
+			} catch (ConnectException e) {
+				log.warn("Unable to import version {} of subject {} during warm-up: {}", version, subject, e.getMessage());
+			} catch (CompletionException e) {
+				log.warn("Unable to copy the references of version {} of subject {} during warm-up", version, subject,
+						AsyncRegistryClient.unwrap(e));
+			}
+		}
+	}
+}
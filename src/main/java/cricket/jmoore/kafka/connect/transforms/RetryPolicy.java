@@ -0,0 +1,178 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+/**
+ * Retries registry calls that failed for reasons that may go away by themselves, so that a registry restart or a
+ * load balancer hiccup does not fail records and, with them, the task.
+ *
+ * <p>Only I/O errors and responses saying the registry is unavailable or overloaded are retried. Answers about the
+ * schema itself, such as not found or incompatible, come back the same every time and fail straight away. Retries
+ * wait with exponential backoff and full jitter, and stop once the attempts or the time allowed for the record's
+ * copy run out.</p>
+ *
+ * <p>A scheduler only waits out the backoffs and hands each retry over to the registry executor, so retries of
+ * different misses run as concurrently as their first attempts did. Without a registry executor, registry calls
+ * are made on the calling thread, which then waits out the backoff and retries itself. Each attempt is also cut
+ * off once the time allowed for the copy runs out, rather than only kept from starting after it.</p>
+ */
+class RetryPolicy {
+	private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+	private static final int HTTP_REQUEST_TIMEOUT = 408;
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_SERVER_ERROR = 500;
+
+	static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+	private final int maxAttempts;
+	private final long backoffMs;
+	private final long maxBackoffMs;
+	private final long deadlineMs;
+
+	/**
+	 * @param deadlineMs how long all attempts together may take, or 0 for no limit besides {@code maxAttempts}
+	 */
+	RetryPolicy(int maxAttempts, long backoffMs, long maxBackoffMs, long deadlineMs) {
+		this.maxAttempts = maxAttempts;
+		this.backoffMs = backoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+		this.deadlineMs = deadlineMs;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} by which a copy starting now must be done
+	 */
+	long deadlineNanos() {
+		return deadlineMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : Long.MAX_VALUE;
+	}
+
+	static boolean isRetriable(Throwable e) {
+		final Throwable cause = AsyncRegistryClient.unwrap(e);
+		if (cause instanceof RestClientException) {
+			final int status = ((RestClientException) cause).getStatus();
+			return status >= HTTP_SERVER_ERROR || status == HTTP_TOO_MANY_REQUESTS || status == HTTP_REQUEST_TIMEOUT;
+		}
+		return cause instanceof IOException;
+	}
+
+	/**
+	 * Makes the call {@code attempt} starts, and makes it again after a backoff while it fails with a retriable
+	 * error, there are attempts left and the backoff ends before {@code deadlineNanos}.
+	 *
+	 * @param scheduler where backoffs and deadlines are timed, only asked for when a call is retried or bounded
+	 * @param executor where retries are made, or null to make them on the thread that saw the failure after it
+	 * waited out the backoff, for registry calls that are made on the calling thread
+	 * @param onRetry run before every retry
+	 * @return the outcome of the last attempt, or a {@link TimeoutException} when an attempt made on
+	 * {@code executor} did not finish by {@code deadlineNanos}
+	 */
+	<T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> attempt, long deadlineNanos,
+			Supplier<ScheduledExecutorService> scheduler, Executor executor, Runnable onRetry) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		attempt(1, attempt, deadlineNanos, scheduler, executor, onRetry, result);
+		return result;
+	}
+
+	private <T> void attempt(int n, Supplier<CompletableFuture<T>> attempt, long deadlineNanos,
+			Supplier<ScheduledExecutorService> scheduler, Executor executor, Runnable onRetry, CompletableFuture<T> result) {
+		final CompletableFuture<T> call;
+		try {
+			call = attempt.get();
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+			return;
+		}
+		// a call made on the calling thread is done by now, and one made elsewhere may never answer
+		final CompletableFuture<T> bounded = executor != null ? withDeadline(call, deadlineNanos, scheduler) : call;
+		bounded.whenComplete((value, e) -> {
+			if (e == null) {
+				result.complete(value);
+				return;
+			}
+			final Throwable cause = AsyncRegistryClient.unwrap(e);
+			final long delayMs = backoffMs(n);
+			if (n >= maxAttempts || !isRetriable(cause)
+					|| System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs) - deadlineNanos > 0) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			log.debug("Registry call failed on attempt {} of {}, retrying in {} ms", n, maxAttempts, delayMs, cause);
+			onRetry.run();
+			if (executor == null) {
+				try {
+					TimeUnit.MILLISECONDS.sleep(delayMs);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					result.completeExceptionally(cause);
+					return;
+				}
+				attempt(n + 1, attempt, deadlineNanos, scheduler, null, onRetry, result);
+				return;
+			}
+			try {
+				scheduler.get().schedule(() -> {
+					try {
+						executor.execute(() -> attempt(n + 1, attempt, deadlineNanos, scheduler, executor, onRetry, result));
+					} catch (RejectedExecutionException rejected) {
+						result.completeExceptionally(cause);
+					}
+				}, delayMs, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException rejected) {
+				result.completeExceptionally(cause);
+			}
+		});
+	}
+
+	/**
+	 * @return {@code call}, failed with a {@link TimeoutException} if it is not done by {@code deadlineNanos}
+	 */
+	private static <T> CompletableFuture<T> withDeadline(CompletableFuture<T> call, long deadlineNanos,
+			Supplier<ScheduledExecutorService> scheduler) {
+		if (deadlineNanos == Long.MAX_VALUE || call.isDone()) {
+			return call;
+		}
+		final CompletableFuture<T> bounded = new CompletableFuture<>();
+		final ScheduledFuture<?> timeout;
+		try {
+			timeout = scheduler.get().schedule(() -> bounded.completeExceptionally(
+					new TimeoutException("Registry call did not finish before the deadline of the schema copy")),
+					Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			return call;
+		}
+		call.whenComplete((value, e) -> {
+			timeout.cancel(false);
+			if (e != null) {
+				bounded.completeExceptionally(e);
+			} else {
+				bounded.complete(value);
+			}
+		});
+		return bounded;
+	}
+
+	/**
+	 * @return a random delay between 0 and the exponential backoff for the attempt after {@code attempt}
+	 */
+	long backoffMs(int attempt) {
+		final long exponential = backoffMs << Math.min(attempt - 1, 30);
+		final long cap = exponential < 0 || exponential > maxBackoffMs ? maxBackoffMs : exponential;
+		return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+	}
+}
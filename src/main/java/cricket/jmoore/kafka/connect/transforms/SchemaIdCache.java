@@ -0,0 +1,268 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded map from a record's source schema id to its destination schema id.
+ *
+ * <p>The same source id can be registered under several destination subjects, so entries are keyed by
+ * {@link #key(int, boolean, int)}, which packs an interned topic index, the key/value flag and the source id into
+ * a single {@code long}. Topic and key/value flag together determine the subject for a given schema.</p>
+ *
+ * <p>Lookups never lock and never box: the table is open-addressed with linear probing over primitive
+ * arrays, and a slot's value is published before its key so a reader that sees the key always sees the value.
+ * Writes only happen on a cache miss, which already costs a round-trip to both registries, so they are
+ * serialized on a single monitor.</p>
+ *
+ * <p>Eviction uses the CLOCK approximation of LRU: a hit sets the slot's reference bit, and the clock hand
+ * gives referenced entries a second chance before evicting them. Evicted slots become tombstones, and the table
+ * is rebuilt off to the side and swapped in once tombstones build up, so readers never observe a moving entry.</p>
+ */
+class SchemaIdCache {
+	public static final int NO_ID = -1;
+
+	public static final int MAX_TOPIC_INDEX = (1 << 30) - 1;
+
+	/**
+	 * Stands in for the key of a record whose topic has no index, which is then translated without any of the
+	 * caches keyed like this one.
+	 */
+	public static final long NO_KEY = -1L;
+
+	private static final long EMPTY = -1L;
+	private static final long TOMBSTONE = -2L;
+
+	private final int capacity;
+	private final Object writeLock = new Object();
+	private volatile Table table;
+
+	// guarded by writeLock
+	private int size;
+	private int tombstones;
+	private int clockHand;
+	private long evictions;
+	private long modifications;
+
+	/**
+	 * Receives the entries of the cache, see {@link #forEach}.
+	 */
+	interface EntryVisitor {
+		void visit(long key, int destId);
+	}
+
+	SchemaIdCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive, was " + capacity);
+		}
+		this.capacity = capacity;
+		this.table = new Table(tableSizeFor(capacity));
+	}
+
+	/**
+	 * Packs the parts of a cache key without allocating.
+	 *
+	 * @param topicIndex a small, non-negative number uniquely identifying the record's topic
+	 */
+	static long key(int topicIndex, boolean isKey, int sourceId) {
+		if (topicIndex < 0 || topicIndex > MAX_TOPIC_INDEX) {
+			throw new IllegalArgumentException("topic index out of range: " + topicIndex);
+		}
+		if (sourceId < 0) {
+			throw new IllegalArgumentException("schema ids must not be negative, was " + sourceId);
+		}
+		return ((long) topicIndex << 33) | (isKey ? 1L << 32 : 0L) | sourceId;
+	}
+
+	static int topicIndex(long key) {
+		return (int) (key >>> 33);
+	}
+
+	static boolean isKey(long key) {
+		return (key & (1L << 32)) != 0;
+	}
+
+	static int sourceId(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * @return the destination id cached for {@code key}, or {@link #NO_ID} when it is not cached.
+	 */
+	int get(long key) {
+		if (key < 0) {
+			return NO_ID;
+		}
+		final Table t = this.table;
+		final int mask = t.keys.length() - 1;
+		for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+			final long k = t.keys.get(i);
+			if (k == key) {
+				if (t.referenced[i] == 0) {
+					t.referenced[i] = 1;
+				}
+				return t.values.get(i);
+			}
+			if (k == EMPTY) {
+				return NO_ID;
+			}
+		}
+	}
+
+	/**
+	 * Caches {@code destId} for {@code key}, replacing the id an existing entry holds. A registry never changes an
+	 * id, but a store replays the mappings of every worker in order, so a later one, e.g. learned against a
+	 * rebuilt destination registry, has to win. A concurrent {@link #get} sees either id.
+	 */
+	void put(long key, int destId) {
+		if (key < 0) {
+			throw new IllegalArgumentException("cache keys must not be negative, was " + key);
+		}
+		synchronized (writeLock) {
+			Table t = this.table;
+			final int mask = t.keys.length() - 1;
+			int i = mix(key) & mask;
+			for (long k = t.keys.get(i); k != EMPTY; k = t.keys.get(i)) {
+				if (k == key) {
+					if (t.values.get(i) != destId) {
+						t.values.set(i, destId);
+						modifications++;
+					}
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			if (size >= capacity) {
+				evictOne(t);
+			}
+			if (size + tombstones + 1 > (t.keys.length() >> 1) + (t.keys.length() >> 2)) {
+				t = rebuild(t);
+				this.table = t;
+				i = mix(key) & mask;
+				while (t.keys.get(i) != EMPTY) {
+					i = (i + 1) & mask;
+				}
+			}
+			t.values.set(i, destId);
+			t.keys.set(i, key);
+			size++;
+			modifications++;
+		}
+	}
+
+	/**
+	 * Visits a weakly consistent view of every cached entry, without marking any of them as referenced.
+	 */
+	void forEach(EntryVisitor visitor) {
+		final Table t = this.table;
+		for (int i = 0; i < t.keys.length(); i++) {
+			final long k = t.keys.get(i);
+			if (k >= 0) {
+				visitor.visit(k, t.values.get(i));
+			}
+		}
+	}
+
+	int size() {
+		synchronized (writeLock) {
+			return size;
+		}
+	}
+
+	long evictions() {
+		synchronized (writeLock) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * @return a counter that increases whenever an entry is added or changed, for callers that persist the cache.
+	 */
+	long modifications() {
+		synchronized (writeLock) {
+			return modifications;
+		}
+	}
+
+	void clear() {
+		synchronized (writeLock) {
+			this.table = new Table(this.table.keys.length());
+			size = 0;
+			tombstones = 0;
+			clockHand = 0;
+		}
+	}
+
+	private void evictOne(Table t) {
+		final int mask = t.keys.length() - 1;
+		while (true) {
+			final int i = clockHand;
+			clockHand = (clockHand + 1) & mask;
+			if (t.keys.get(i) < 0) {
+				continue;
+			}
+			if (t.referenced[i] != 0) {
+				t.referenced[i] = 0;
+				continue;
+			}
+			t.keys.set(i, TOMBSTONE);
+			size--;
+			tombstones++;
+			evictions++;
+			return;
+		}
+	}
+
+	private Table rebuild(Table old) {
+		final Table fresh = new Table(old.keys.length());
+		final int mask = fresh.keys.length() - 1;
+		for (int j = 0; j < old.keys.length(); j++) {
+			final long k = old.keys.get(j);
+			if (k < 0) {
+				continue;
+			}
+			int i = mix(k) & mask;
+			while (fresh.keys.get(i) != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			fresh.values.set(i, old.values.get(j));
+			fresh.keys.set(i, k);
+			fresh.referenced[i] = old.referenced[j];
+		}
+		tombstones = 0;
+		clockHand = 0;
+		return fresh;
+	}
+
+	private static int tableSizeFor(int capacity) {
+		// keep the load factor at or below one half so probe sequences stay short
+		final long wanted = Math.max(4L, (long) capacity * 2);
+		if (wanted > (1 << 30)) {
+			throw new IllegalArgumentException("capacity too large: " + capacity);
+		}
+		return Integer.highestOneBit((int) wanted - 1) << 1;
+	}
+
+	private static int mix(long key) {
+		// registry ids and topic indexes are sequential, so spread them before masking
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static final class Table {
+		final AtomicLongArray keys;
+		final AtomicIntegerArray values;
+		// racy by design: a lost update only costs an entry its second chance
+		final byte[] referenced;
+
+		Table(int length) {
+			this.keys = new AtomicLongArray(length);
+			this.values = new AtomicIntegerArray(length);
+			this.referenced = new byte[length];
+			for (int i = 0; i < length; i++) {
+				keys.lazySet(i, EMPTY);
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.entities.SchemaReference;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+/**
+ * Copies the schemas a schema refers to, such as Protobuf imports or Avro named types defined under another
+ * subject, before the schema itself is registered with the destination registry.
+ *
+ * <p>References form a graph of source subjects and versions. Each one is copied under the same subject once all
+ * of its own references are, so leaves are registered first and independent branches are copied concurrently on
+ * the registry executor. The version each one received in the destination registry is remembered, so a schema
+ * shared by many others is only copied once per {@link RegistryPairContext}.</p>
+ *
+ * <p>When ids are preserved, each one is imported under its translated source id and its source version instead,
+ * so that it does not take an id a schema imported later needs.</p>
+ */
+class SchemaReferenceResolver {
+	private static final Logger log = LoggerFactory.getLogger(SchemaReferenceResolver.class);
+
+	private final AsyncRegistryClient source;
+	private final AsyncRegistryClient dest;
+	// null when the destination registry assigns ids
+	private final Importer importer;
+	// source "subject/version" of every referenced schema, to its version in the destination registry
+	private final Map<String, CompletableFuture<Integer>> copied = new ConcurrentHashMap<>();
+
+	/**
+	 * Registers a schema under an id derived from its source id, see {@link RegistryPairContext#importSchema}.
+	 */
+	interface Importer {
+		int importSchema(String subject, ParsedSchema schema, int version, int sourceId) throws IOException, RestClientException;
+	}
+
+	SchemaReferenceResolver(AsyncRegistryClient source, AsyncRegistryClient dest) {
+		this(source, dest, null);
+	}
+
+	/**
+	 * @param importer imports referenced schemas when ids are preserved, or null when the destination assigns ids
+	 */
+	SchemaReferenceResolver(AsyncRegistryClient source, AsyncRegistryClient dest, Importer importer) {
+		this.source = source;
+		this.dest = dest;
+		this.importer = importer;
+	}
+
+	/**
+	 * @return {@code schema} itself when it has no references, otherwise the same schema referring to the copies
+	 * of its references in the destination registry, once they have all been registered
+	 */
+	CompletableFuture<ParsedSchema> forDestination(ParsedSchema schema) {
+		final List<SchemaReference> references = schema.references();
+		if (references == null || references.isEmpty()) {
+			return CompletableFuture.completedFuture(schema);
+		}
+		return copyAll(references)
+				.thenCompose(destReferences -> dest.call(() ->
+						parse(dest.client(), schema.schemaType(), schema.canonicalString(), destReferences)));
+	}
+
+	private CompletableFuture<List<SchemaReference>> copyAll(List<SchemaReference> references) {
+		final List<CompletableFuture<SchemaReference>> copies = new ArrayList<>(references.size());
+		for (final SchemaReference reference : references) {
+			copies.add(copy(reference)
+					.thenApply(destVersion -> new SchemaReference(reference.getName(), reference.getSubject(), destVersion)));
+		}
+		return CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0]))
+				.thenApply(done -> {
+					final List<SchemaReference> destReferences = new ArrayList<>(copies.size());
+					for (final CompletableFuture<SchemaReference> copy : copies) {
+						destReferences.add(copy.join());
+					}
+					return destReferences;
+				});
+	}
+
+	/**
+	 * @return the version of {@code reference} in the destination registry
+	 */
+	private CompletableFuture<Integer> copy(SchemaReference reference) {
+		final String key = reference.getSubject() + '/' + reference.getVersion();
+		final CompletableFuture<Integer> pending = new CompletableFuture<>();
+		final CompletableFuture<Integer> existing = copied.putIfAbsent(key, pending);
+		if (existing != null) {
+			return existing;
+		}
+		log.trace("Copying referenced schema {} version {}", reference.getSubject(), reference.getVersion());
+		source.call(() -> source.client().getSchemaMetadata(reference.getSubject(), reference.getVersion()))
+				.thenCompose(metadata -> copyAll(referencesOf(metadata))
+						.thenCompose(destReferences -> dest.call(() -> {
+							final SchemaRegistryClient client = dest.client();
+							final ParsedSchema schema = parse(client, metadata.getSchemaType(), metadata.getSchema(), destReferences);
+							if (importer != null) {
+								importer.importSchema(reference.getSubject(), schema, metadata.getVersion(), metadata.getId());
+								return metadata.getVersion();
+							}
+							client.register(reference.getSubject(), schema);
+							return client.getVersion(reference.getSubject(), schema);
+						})))
+				.whenComplete((destVersion, e) -> {
+					if (e != null) {
+						// forget the failure, so that the next schema referring to it tries again
+						copied.remove(key, pending);
+						pending.completeExceptionally(AsyncRegistryClient.unwrap(e));
+					} else {
+						pending.complete(destVersion);
+					}
+				});
+		return pending;
+	}
+
+	private static List<SchemaReference> referencesOf(SchemaMetadata metadata) {
+		return metadata.getReferences() == null ? Collections.emptyList() : metadata.getReferences();
+	}
+
+	private static ParsedSchema parse(SchemaRegistryClient client, String schemaType, String schema, List<SchemaReference> references) {
+		final String type = schemaType == null ? AvroSchema.TYPE : schemaType;
+		return client.parseSchema(type, schema, references)
+				.orElseThrow(() -> new ConnectException(String.format("Unable to parse %s schema referring to %s", type, references)));
+	}
+}
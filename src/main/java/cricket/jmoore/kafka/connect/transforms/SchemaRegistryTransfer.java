@@ -1,27 +1,24 @@
 /* Licensed under Apache-2.0 */
 package cricket.jmoore.kafka.connect.transforms;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.Set;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
-
-import org.apache.kafka.common.cache.Cache;
-import org.apache.kafka.common.cache.LRUCache;
-import org.apache.kafka.common.cache.SynchronizedCache;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.connect.connector.ConnectRecord;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.transforms.Transformation;
 import org.apache.kafka.connect.transforms.util.NonEmptyListValidator;
 import org.apache.kafka.connect.transforms.util.SimpleConfig;
@@ -29,8 +26,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.confluent.kafka.schemaregistry.ParsedSchema;
-import io.confluent.kafka.schemaregistry.avro.AvroSchema;
-import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
 import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
 import io.confluent.kafka.serializers.subject.TopicNameStrategy;
@@ -38,11 +33,14 @@ import io.confluent.kafka.serializers.subject.strategy.SubjectNameStrategy;
 
 @SuppressWarnings("unused")
 public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Transformation<R> {
-	public static final String OVERVIEW_DOC = "Inspect the Confluent KafkaAvroSerializer's wire-format header to copy schemas from one Schema Registry to another.";
+	public static final String OVERVIEW_DOC = "Inspect the wire-format header of Confluent's Avro, Protobuf and JSON Schema serializers to copy schemas from one Schema Registry to another.";
 	private static final Logger log = LoggerFactory.getLogger(SchemaRegistryTransfer.class);
 
 	private static final byte MAGIC_BYTE = (byte) 0x0;
-	// wire-format is magic byte + an integer, then data
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int SCHEMA_NOT_FOUND_ERROR_CODE = 40403;
+	// wire-format is magic byte + an integer, then data. Protobuf data starts with its message indexes, which only
+	// refer to the schema's own message types, so they stay valid under the destination id and are left as they are
 	private static final short WIRE_FORMAT_PREFIX_LENGTH = 1 + (Integer.SIZE / Byte.SIZE);
 
 	public static final ConfigDef CONFIG_DEF;
@@ -62,23 +60,115 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 	public static final String DEST_BASIC_AUTH_CREDENTIALS_SOURCE_CONFIG_DEFAULT = AbstractKafkaSchemaSerDeConfig.BASIC_AUTH_CREDENTIALS_SOURCE_DEFAULT;
 	public static final String DEST_USER_INFO_CONFIG_DOC = DEST_PREAMBLE + AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_USER_INFO_DOC;
 	public static final String DEST_USER_INFO_CONFIG_DEFAULT = AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_USER_INFO_DEFAULT;
+	public static final String DEST_KEY_SUBJECT_NAME_STRATEGY_CONFIG_DOC = DEST_PREAMBLE + AbstractKafkaSchemaSerDeConfig.KEY_SUBJECT_NAME_STRATEGY_DOC;
+	public static final String DEST_VALUE_SUBJECT_NAME_STRATEGY_CONFIG_DOC = DEST_PREAMBLE + AbstractKafkaSchemaSerDeConfig.VALUE_SUBJECT_NAME_STRATEGY_DOC;
+	public static final String SRC_KEY_SUBJECT_NAME_STRATEGY_CONFIG_DOC = SRC_PREAMBLE + AbstractKafkaSchemaSerDeConfig.KEY_SUBJECT_NAME_STRATEGY_DOC
+			+ " Warm-up copies subjects under their source names, so it is skipped when this differs from the destination strategy.";
+	public static final String SRC_VALUE_SUBJECT_NAME_STRATEGY_CONFIG_DOC = SRC_PREAMBLE + AbstractKafkaSchemaSerDeConfig.VALUE_SUBJECT_NAME_STRATEGY_DOC
+			+ " Warm-up copies subjects under their source names, so it is skipped when this differs from the destination strategy.";
+	public static final Class<?> SUBJECT_NAME_STRATEGY_CONFIG_DEFAULT = TopicNameStrategy.class;
 
 	public static final String TRANSFER_KEYS_CONFIG_DOC = "Whether or not to copy message key schemas between registries.";
 	public static final Boolean TRANSFER_KEYS_CONFIG_DEFAULT = true;
 	public static final String INCLUDE_HEADERS_CONFIG_DOC = "Whether or not to preserve the Kafka Connect Record headers.";
 	public static final Boolean INCLUDE_HEADERS_CONFIG_DEFAULT = true;
 	public static final String IGNORE_LIST_CONFIG_DOC = "list of regex expressions of topics to ignore";
-
-	private CachedSchemaRegistryClient sourceSchemaRegistryClient;
-	private CachedSchemaRegistryClient destSchemaRegistryClient;
-	private SubjectNameStrategy subjectNameStrategy;
+	public static final String SHARED_CONTEXT_CONFIG_DOC = "Whether transform instances in the same worker that use the same source and destination registries, "
+			+ "credentials and schema capacity should share one pair of registry clients and one id mapping. "
+			+ "Only instances with the same destination subject name strategies and preserve.ids settings share a mapping.";
+	public static final Boolean SHARED_CONTEXT_CONFIG_DEFAULT = false;
+	public static final String WARMUP_ENABLED_CONFIG_DOC = "Whether to copy every subject of the source registry to the destination registry when the transform is configured, "
+			+ "so that records do not pay for registry round-trips after a restart. Subjects are copied under their source name.";
+	public static final Boolean WARMUP_ENABLED_CONFIG_DEFAULT = false;
+	public static final String WARMUP_CONCURRENCY_CONFIG_DOC = "The number of subjects copied concurrently during warm-up.";
+	public static final Integer WARMUP_CONCURRENCY_CONFIG_DEFAULT = 4;
+	public static final String WARMUP_TIMEOUT_MS_CONFIG_DOC = "The maximum time in milliseconds that warm-up may delay configure(). Schemas not copied in time are copied on first use.";
+	public static final Long WARMUP_TIMEOUT_MS_CONFIG_DEFAULT = 30_000L;
+	public static final String SNAPSHOT_PATH_CONFIG_DOC = "A file in which to persist the source to destination schema id mapping, so that it survives restarts. "
+			+ "Each transform instance needs its own file unless shared.context is enabled. A snapshot written for other registry URLs is ignored. Empty to disable.";
+	public static final String SNAPSHOT_PATH_CONFIG_DEFAULT = "";
+	public static final String SNAPSHOT_INTERVAL_MS_CONFIG_DOC = "How often in milliseconds the schema id mapping is written to snapshot.path if it changed. "
+			+ "0 writes it only when the transform is closed.";
+	public static final Long SNAPSHOT_INTERVAL_MS_CONFIG_DEFAULT = 60_000L;
+	public static final String MAPPING_STORE_PREFIX = "mapping.store.";
+	public static final String MAPPING_STORE_TOPIC_CONFIG_DOC = "A compacted Kafka topic through which workers share the source to destination schema id mappings they learn. "
+			+ "Other " + MAPPING_STORE_PREFIX + "* properties are passed to its producer and consumer. Empty to disable.";
+	public static final String MAPPING_STORE_TOPIC_CONFIG_DEFAULT = "";
+	public static final String MAPPING_STORE_BOOTSTRAP_SERVERS_CONFIG_DOC = "The Kafka cluster holding " + MAPPING_STORE_PREFIX + "topic.";
+	public static final String MAPPING_STORE_LOAD_TIMEOUT_MS_CONFIG_DOC = "The maximum time in milliseconds configure() waits to read " + MAPPING_STORE_PREFIX + "topic up to its end.";
+	public static final Long MAPPING_STORE_LOAD_TIMEOUT_MS_CONFIG_DEFAULT = 30_000L;
+	public static final String REGISTRY_THREADS_CONFIG_DOC = "The number of threads making registry calls for schemas that are not cached yet, bounding how many such calls are outstanding at once. "
+			+ "0 makes them on the task thread.";
+	public static final Integer REGISTRY_THREADS_CONFIG_DEFAULT = 0;
+	public static final String LATENCY_LOG_INTERVAL_MS_CONFIG_DOC = "How often in milliseconds to log the p50, p99, p99.9 and maximum latency of registry calls made since the previous log line. "
+			+ "0 disables logging, the latencies are always available as metrics.";
+	public static final Long LATENCY_LOG_INTERVAL_MS_CONFIG_DEFAULT = 0L;
+	public static final String NEGATIVE_CACHE_TTL_MS_CONFIG_DOC = "How long in milliseconds a schema id that is unknown to the source registry, or that the destination registry refused, "
+			+ "fails records without asking the registries again. 0 retries on every record.";
+	public static final Long NEGATIVE_CACHE_TTL_MS_CONFIG_DEFAULT = 0L;
+	public static final String NEGATIVE_CACHE_CAPACITY_CONFIG_DOC = "The maximum number of failed schema ids remembered for " + ConfigName.NEGATIVE_CACHE_TTL_MS + ".";
+	public static final Integer NEGATIVE_CACHE_CAPACITY_CONFIG_DEFAULT = 1000;
+	public static final String SOURCE_SCHEMA_CACHE_CAPACITY_CONFIG_DOC = "The number of source schemas kept after they were copied, so that a schema id seen again for another topic, "
+			+ "or for record keys after values, is registered without fetching it again. The source registry client caches schemas by id itself, "
+			+ "but with " + ConfigName.SRC_LOAD_BALANCE + " each node has its own client and the next fetch may go to another node. 0 keeps only destination ids.";
+	public static final Integer SOURCE_SCHEMA_CACHE_CAPACITY_CONFIG_DEFAULT = 0;
+	public static final String PRESERVE_IDS_CONFIG_DOC = "Whether to register schemas in the destination registry under their source ids, using its IMPORT mode, "
+			+ "so that records pass through unchanged. Subjects are switched to IMPORT mode as they are first written, "
+			+ "and the destination registry must not hold other schemas under the same ids, so it is best used with an empty destination.";
+	public static final Boolean PRESERVE_IDS_CONFIG_DEFAULT = false;
+	public static final String PRESERVE_IDS_OFFSET_CONFIG_DOC = "Added to every source id to get the id its schema is imported under when " + ConfigName.PRESERVE_IDS + " is enabled, "
+			+ "so that schemas from several source registries can be imported into one destination registry. Records are then rewritten by this offset, "
+			+ "and fail if their source id plus the offset does not fit in a schema id.";
+	public static final Integer PRESERVE_IDS_OFFSET_CONFIG_DEFAULT = 0;
+	public static final String REGISTRY_RETRY_MAX_ATTEMPTS_CONFIG_DOC = "How many times a registry call that failed with an I/O error, a 5xx, 408 or 429 response is made "
+			+ "before the record fails. 1 disables retries.";
+	public static final Integer REGISTRY_RETRY_MAX_ATTEMPTS_CONFIG_DEFAULT = 3;
+	public static final String REGISTRY_RETRY_BACKOFF_MS_CONFIG_DOC = "The backoff in milliseconds before the first retry, doubled for each further retry. "
+			+ "Each backoff is a random time between 0 and that value.";
+	public static final Long REGISTRY_RETRY_BACKOFF_MS_CONFIG_DEFAULT = 100L;
+	public static final String REGISTRY_RETRY_BACKOFF_MAX_MS_CONFIG_DOC = "The maximum backoff in milliseconds between two attempts of a registry call.";
+	public static final Long REGISTRY_RETRY_BACKOFF_MAX_MS_CONFIG_DEFAULT = 5_000L;
+	public static final String REGISTRY_RETRY_DEADLINE_MS_CONFIG_DOC = "The maximum time in milliseconds spent copying one schema, retries included, "
+			+ "after which no further retry is made. 0 leaves only " + ConfigName.REGISTRY_RETRY_MAX_ATTEMPTS + " as the limit.";
+	public static final Long REGISTRY_RETRY_DEADLINE_MS_CONFIG_DEFAULT = 30_000L;
+	public static final String REGISTRY_CIRCUIT_FAILURE_THRESHOLD_CONFIG_DOC = "After how many consecutive failed calls to a registry cache misses stop calling it "
+			+ "and fail straight away with a retriable error, while records whose ids are cached keep flowing. Connect only retries such a record "
+			+ "when the connector sets errors.retry.timeout above 0, and otherwise fails the task as for any other error. 0 disables the circuit breaker.";
+	public static final Integer REGISTRY_CIRCUIT_FAILURE_THRESHOLD_CONFIG_DEFAULT = 0;
+	public static final String REGISTRY_CIRCUIT_OPEN_MS_CONFIG_DOC = "How long in milliseconds a registry is not called once its circuit breaker opened, "
+			+ "before a single call tests whether it recovered.";
+	public static final Long REGISTRY_CIRCUIT_OPEN_MS_CONFIG_DEFAULT = 30_000L;
+	public static final String SRC_LOAD_BALANCE_CONFIG_DOC = SRC_PREAMBLE + "whether to fetch schemas from every node listed in "
+			+ ConfigName.SRC_SCHEMA_REGISTRY_URL + ", preferring the one with the fewest outstanding requests and then the lowest recent latency, "
+			+ "instead of from the first one that answers.";
+	public static final Boolean SRC_LOAD_BALANCE_CONFIG_DEFAULT = false;
+	public static final String SRC_HEDGE_DELAY_MS_CONFIG_DOC = SRC_PREAMBLE + "after how many milliseconds a schema fetch that got no answer yet "
+			+ "is also sent to a second node, using whichever answers first. -1 follows the p95 of fetches so far, 0 disables hedging. "
+			+ "Only used with " + ConfigName.SRC_LOAD_BALANCE + " and " + ConfigName.REGISTRY_THREADS + " above 0.";
+	public static final Long SRC_HEDGE_DELAY_MS_CONFIG_DEFAULT = 0L;
+	public static final String REGISTRY_LOOKUP_FIRST_CONFIG_DOC = "Whether to look for a schema in the destination subject with a single read-only lookup "
+			+ "before registering it, so that only schemas the destination does not have yet take its write path. Not used with " + ConfigName.PRESERVE_IDS + ".";
+	public static final Boolean REGISTRY_LOOKUP_FIRST_CONFIG_DEFAULT = false;
+
+	private final RegistryPairContext.ClientFactory clientFactory;
+	private RegistryPairContext context;
+	private TransferMetrics metrics;
+	private NegativeCache negativeCache = new NegativeCache(0, 0);
+	private SourceSchemaCache sourceSchemas = new SourceSchemaCache(0);
+	// null when the destination registry assigns ids
+	private IdTranslation idTranslation;
+	private RetryPolicy retryPolicy = RetryPolicy.NONE;
+	private boolean lookupFirst;
+	private SubjectNames subjectNames = SubjectNames.topicNames(SCHEMA_CAPACITY_CONFIG_DEFAULT);
 	private boolean transferKeys, includeHeaders;
-	private Set<Predicate<String>> ignoreTopics = new HashSet<>();
-
-	// caches from the source registry to the destination registry
-	private Cache<Integer, SchemaAndId> schemaCache;
+	private TopicFilter ignoreTopics = TopicFilter.compile(Collections.emptyList(), ConfigName.IGNORE_LIST);
 
 	public SchemaRegistryTransfer() {
+		this(RegistryPairContext.ClientFactory.DEFAULT);
+	}
+
+	SchemaRegistryTransfer(RegistryPairContext.ClientFactory clientFactory) {
+		this.clientFactory = clientFactory;
 	}
 
 	static {
@@ -89,13 +179,41 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 				.define(ConfigName.SRC_USER_INFO, ConfigDef.Type.PASSWORD, SRC_USER_INFO_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, SRC_USER_INFO_CONFIG_DOC)
 				.define(ConfigName.DEST_BASIC_AUTH_CREDENTIALS_SOURCE, ConfigDef.Type.STRING, DEST_BASIC_AUTH_CREDENTIALS_SOURCE_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, DEST_BASIC_AUTH_CREDENTIALS_SOURCE_CONFIG_DOC)
 				.define(ConfigName.DEST_USER_INFO, ConfigDef.Type.PASSWORD, DEST_USER_INFO_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, DEST_USER_INFO_CONFIG_DOC)
+				.define(ConfigName.SRC_KEY_SUBJECT_NAME_STRATEGY, ConfigDef.Type.CLASS, SUBJECT_NAME_STRATEGY_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, SRC_KEY_SUBJECT_NAME_STRATEGY_CONFIG_DOC)
+				.define(ConfigName.SRC_VALUE_SUBJECT_NAME_STRATEGY, ConfigDef.Type.CLASS, SUBJECT_NAME_STRATEGY_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, SRC_VALUE_SUBJECT_NAME_STRATEGY_CONFIG_DOC)
+				.define(ConfigName.DEST_KEY_SUBJECT_NAME_STRATEGY, ConfigDef.Type.CLASS, SUBJECT_NAME_STRATEGY_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, DEST_KEY_SUBJECT_NAME_STRATEGY_CONFIG_DOC)
+				.define(ConfigName.DEST_VALUE_SUBJECT_NAME_STRATEGY, ConfigDef.Type.CLASS, SUBJECT_NAME_STRATEGY_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, DEST_VALUE_SUBJECT_NAME_STRATEGY_CONFIG_DOC)
 				.define(ConfigName.SCHEMA_CAPACITY, ConfigDef.Type.INT, SCHEMA_CAPACITY_CONFIG_DEFAULT, ConfigDef.Importance.LOW, SCHEMA_CAPACITY_CONFIG_DOC)
 				.define(ConfigName.TRANSFER_KEYS, ConfigDef.Type.BOOLEAN, TRANSFER_KEYS_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, TRANSFER_KEYS_CONFIG_DOC)
 				.define(ConfigName.INCLUDE_HEADERS, ConfigDef.Type.BOOLEAN, INCLUDE_HEADERS_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, INCLUDE_HEADERS_CONFIG_DOC)
 				.define(ConfigName.IGNORE_LIST, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW,
 						IGNORE_LIST_CONFIG_DOC)
+				.define(ConfigName.SHARED_CONTEXT, ConfigDef.Type.BOOLEAN, SHARED_CONTEXT_CONFIG_DEFAULT, ConfigDef.Importance.LOW, SHARED_CONTEXT_CONFIG_DOC)
+				.define(ConfigName.WARMUP_ENABLED, ConfigDef.Type.BOOLEAN, WARMUP_ENABLED_CONFIG_DEFAULT, ConfigDef.Importance.LOW, WARMUP_ENABLED_CONFIG_DOC)
+				.define(ConfigName.WARMUP_CONCURRENCY, ConfigDef.Type.INT, WARMUP_CONCURRENCY_CONFIG_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, WARMUP_CONCURRENCY_CONFIG_DOC)
+				.define(ConfigName.WARMUP_TIMEOUT_MS, ConfigDef.Type.LONG, WARMUP_TIMEOUT_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, WARMUP_TIMEOUT_MS_CONFIG_DOC)
+				.define(ConfigName.SNAPSHOT_PATH, ConfigDef.Type.STRING, SNAPSHOT_PATH_CONFIG_DEFAULT, ConfigDef.Importance.LOW, SNAPSHOT_PATH_CONFIG_DOC)
+				.define(ConfigName.SNAPSHOT_INTERVAL_MS, ConfigDef.Type.LONG, SNAPSHOT_INTERVAL_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, SNAPSHOT_INTERVAL_MS_CONFIG_DOC)
+				.define(ConfigName.MAPPING_STORE_TOPIC, ConfigDef.Type.STRING, MAPPING_STORE_TOPIC_CONFIG_DEFAULT, ConfigDef.Importance.LOW, MAPPING_STORE_TOPIC_CONFIG_DOC)
+				.define(ConfigName.MAPPING_STORE_BOOTSTRAP_SERVERS, ConfigDef.Type.LIST, "", ConfigDef.Importance.LOW, MAPPING_STORE_BOOTSTRAP_SERVERS_CONFIG_DOC)
+				.define(ConfigName.MAPPING_STORE_LOAD_TIMEOUT_MS, ConfigDef.Type.LONG, MAPPING_STORE_LOAD_TIMEOUT_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, MAPPING_STORE_LOAD_TIMEOUT_MS_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_THREADS, ConfigDef.Type.INT, REGISTRY_THREADS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, REGISTRY_THREADS_CONFIG_DOC)
+				.define(ConfigName.LATENCY_LOG_INTERVAL_MS, ConfigDef.Type.LONG, LATENCY_LOG_INTERVAL_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, LATENCY_LOG_INTERVAL_MS_CONFIG_DOC)
+				.define(ConfigName.NEGATIVE_CACHE_TTL_MS, ConfigDef.Type.LONG, NEGATIVE_CACHE_TTL_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, NEGATIVE_CACHE_TTL_MS_CONFIG_DOC)
+				.define(ConfigName.NEGATIVE_CACHE_CAPACITY, ConfigDef.Type.INT, NEGATIVE_CACHE_CAPACITY_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, NEGATIVE_CACHE_CAPACITY_CONFIG_DOC)
+				.define(ConfigName.SOURCE_SCHEMA_CACHE_CAPACITY, ConfigDef.Type.INT, SOURCE_SCHEMA_CACHE_CAPACITY_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, SOURCE_SCHEMA_CACHE_CAPACITY_CONFIG_DOC)
+				.define(ConfigName.PRESERVE_IDS, ConfigDef.Type.BOOLEAN, PRESERVE_IDS_CONFIG_DEFAULT, ConfigDef.Importance.MEDIUM, PRESERVE_IDS_CONFIG_DOC)
+				.define(ConfigName.PRESERVE_IDS_OFFSET, ConfigDef.Type.INT, PRESERVE_IDS_OFFSET_CONFIG_DEFAULT, ConfigDef.Range.between(0, Integer.MAX_VALUE - 1), ConfigDef.Importance.LOW, PRESERVE_IDS_OFFSET_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_RETRY_MAX_ATTEMPTS, ConfigDef.Type.INT, REGISTRY_RETRY_MAX_ATTEMPTS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, REGISTRY_RETRY_MAX_ATTEMPTS_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_RETRY_BACKOFF_MS, ConfigDef.Type.LONG, REGISTRY_RETRY_BACKOFF_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, REGISTRY_RETRY_BACKOFF_MS_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_RETRY_BACKOFF_MAX_MS, ConfigDef.Type.LONG, REGISTRY_RETRY_BACKOFF_MAX_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, REGISTRY_RETRY_BACKOFF_MAX_MS_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_RETRY_DEADLINE_MS, ConfigDef.Type.LONG, REGISTRY_RETRY_DEADLINE_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, REGISTRY_RETRY_DEADLINE_MS_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_CIRCUIT_FAILURE_THRESHOLD, ConfigDef.Type.INT, REGISTRY_CIRCUIT_FAILURE_THRESHOLD_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, REGISTRY_CIRCUIT_FAILURE_THRESHOLD_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_CIRCUIT_OPEN_MS, ConfigDef.Type.LONG, REGISTRY_CIRCUIT_OPEN_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, REGISTRY_CIRCUIT_OPEN_MS_CONFIG_DOC)
+				.define(ConfigName.REGISTRY_LOOKUP_FIRST, ConfigDef.Type.BOOLEAN, REGISTRY_LOOKUP_FIRST_CONFIG_DEFAULT, ConfigDef.Importance.LOW, REGISTRY_LOOKUP_FIRST_CONFIG_DOC)
+				.define(ConfigName.SRC_LOAD_BALANCE, ConfigDef.Type.BOOLEAN, SRC_LOAD_BALANCE_CONFIG_DEFAULT, ConfigDef.Importance.LOW, SRC_LOAD_BALANCE_CONFIG_DOC)
+				.define(ConfigName.SRC_HEDGE_DELAY_MS, ConfigDef.Type.LONG, SRC_HEDGE_DELAY_MS_CONFIG_DEFAULT, ConfigDef.Range.atLeast(-1), ConfigDef.Importance.LOW, SRC_HEDGE_DELAY_MS_CONFIG_DOC)
 				;
-		// TODO: Other properties might be useful, e.g. the Subject Strategies
 	}
 
 	@Override
@@ -123,49 +241,144 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 				config.getPassword(ConfigName.DEST_USER_INFO)
 				.value());
 
-		final String configName = ConfigName.IGNORE_LIST;
-		this.ignoreTopics = ignorePredicate(config, configName);
+		this.ignoreTopics = TopicFilter.compile(config.getList(ConfigName.IGNORE_LIST), ConfigName.IGNORE_LIST);
 
 		final Integer schemaCapacity = config.getInt(ConfigName.SCHEMA_CAPACITY);
+		final Integer registryThreads = config.getInt(ConfigName.REGISTRY_THREADS);
+
+		final SubjectNames subjectNames = new SubjectNames(
+				config.getConfiguredInstance(ConfigName.DEST_KEY_SUBJECT_NAME_STRATEGY, SubjectNameStrategy.class),
+				config.getConfiguredInstance(ConfigName.DEST_VALUE_SUBJECT_NAME_STRATEGY, SubjectNameStrategy.class),
+				schemaCapacity);
+		final Integer preservedIdOffset = config.getBoolean(ConfigName.PRESERVE_IDS)
+				? config.getInt(ConfigName.PRESERVE_IDS_OFFSET)
+				: null;
+
+		// reconfigured without an intervening close()
+		close();
+		this.context = config.getBoolean(ConfigName.SHARED_CONTEXT)
+				? RegistryPairContext.acquire(sourceUrls, sourceProps, destUrls, destProps, schemaCapacity, registryThreads, clientFactory,
+						subjectNames.strategies(), preservedIdOffset)
+				: RegistryPairContext.create(sourceUrls, sourceProps, destUrls, destProps, schemaCapacity, registryThreads, clientFactory,
+						subjectNames.strategies(), preservedIdOffset);
+		this.metrics = new TransferMetrics(this.context);
+		this.context.configureCircuitBreakers(config.getInt(ConfigName.REGISTRY_CIRCUIT_FAILURE_THRESHOLD),
+				config.getLong(ConfigName.REGISTRY_CIRCUIT_OPEN_MS));
+		if (config.getBoolean(ConfigName.SRC_LOAD_BALANCE)) {
+			this.context.enableLoadBalancing(config.getLong(ConfigName.SRC_HEDGE_DELAY_MS));
+		}
+		final long latencyLogIntervalMs = config.getLong(ConfigName.LATENCY_LOG_INTERVAL_MS);
+		if (latencyLogIntervalMs > 0) {
+			this.context.enableLatencyLogging(latencyLogIntervalMs);
+		}
 
-		this.schemaCache = new SynchronizedCache<>(new LRUCache<>(schemaCapacity));
-		this.sourceSchemaRegistryClient = new CachedSchemaRegistryClient(sourceUrls, schemaCapacity, sourceProps);
-		this.destSchemaRegistryClient = new CachedSchemaRegistryClient(destUrls, schemaCapacity, destProps);
+		this.negativeCache = new NegativeCache(config.getLong(ConfigName.NEGATIVE_CACHE_TTL_MS),
+				config.getInt(ConfigName.NEGATIVE_CACHE_CAPACITY));
+		this.sourceSchemas = new SourceSchemaCache(config.getInt(ConfigName.SOURCE_SCHEMA_CACHE_CAPACITY));
+		this.retryPolicy = new RetryPolicy(config.getInt(ConfigName.REGISTRY_RETRY_MAX_ATTEMPTS),
+				config.getLong(ConfigName.REGISTRY_RETRY_BACKOFF_MS),
+				config.getLong(ConfigName.REGISTRY_RETRY_BACKOFF_MAX_MS),
+				config.getLong(ConfigName.REGISTRY_RETRY_DEADLINE_MS));
+		this.idTranslation = preservedIdOffset != null ? IdTranslation.offset(preservedIdOffset) : null;
+		this.lookupFirst = config.getBoolean(ConfigName.REGISTRY_LOOKUP_FIRST);
 
 		this.transferKeys = config.getBoolean(ConfigName.TRANSFER_KEYS);
 		this.includeHeaders = config.getBoolean(ConfigName.INCLUDE_HEADERS);
 
-		// TODO: Make the Strategy configurable, may be different for src and dest
-		// Strategy for the -key and -value subjects
-		this.subjectNameStrategy = new TopicNameStrategy();
+		this.subjectNames = subjectNames;
+		final SubjectNames sourceSubjectNames = new SubjectNames(
+				config.getConfiguredInstance(ConfigName.SRC_KEY_SUBJECT_NAME_STRATEGY, SubjectNameStrategy.class),
+				config.getConfiguredInstance(ConfigName.SRC_VALUE_SUBJECT_NAME_STRATEGY, SubjectNameStrategy.class),
+				schemaCapacity);
+
+		final String snapshotPath = config.getString(ConfigName.SNAPSHOT_PATH);
+		if (snapshotPath != null && !snapshotPath.trim().isEmpty()) {
+			this.context.enableSnapshots(Paths.get(snapshotPath.trim()), config.getLong(ConfigName.SNAPSHOT_INTERVAL_MS));
+		}
+
+		final String mappingTopic = config.getString(ConfigName.MAPPING_STORE_TOPIC);
+		if (mappingTopic != null && !mappingTopic.trim().isEmpty()) {
+			if (config.getList(ConfigName.MAPPING_STORE_BOOTSTRAP_SERVERS).isEmpty()) {
+				throw new ConfigException(ConfigName.MAPPING_STORE_BOOTSTRAP_SERVERS, "",
+						"Must be set when " + ConfigName.MAPPING_STORE_TOPIC + " is set");
+			}
+			final Map<String, Object> clientConfigs = config.originalsWithPrefix(MAPPING_STORE_PREFIX);
+			clientConfigs.remove("topic");
+			clientConfigs.remove("load.timeout.ms");
+			final long loadTimeoutMs = config.getLong(ConfigName.MAPPING_STORE_LOAD_TIMEOUT_MS);
+			final int pairFingerprint = this.context.pairFingerprint();
+			this.context.attachStore(() -> KafkaIdMappingStore.create(mappingTopic.trim(), pairFingerprint, clientConfigs, loadTimeoutMs));
+		}
+
+		final boolean warmup = config.getBoolean(ConfigName.WARMUP_ENABLED);
+		if (warmup && !sourceSubjectNames.sameStrategies(this.subjectNames)) {
+			log.warn("Skipping warm-up, source subjects are named differently from destination subjects");
+		} else if (warmup && this.context.claimWarmup()) {
+			new RegistryWarmup(this.context,
+					config.getInt(ConfigName.WARMUP_CONCURRENCY),
+					config.getLong(ConfigName.WARMUP_TIMEOUT_MS),
+					this.idTranslation).run();
+		}
 	}
 
-	private Set<Predicate<String>> ignorePredicate(final SimpleConfig config, final String configName) {
-		final Set<Predicate<String>> ignorePredicate = new HashSet<>();
-		final List<String> ignore = config.getList(configName);
-		for (final String i : ignore) {
-			try {
-				final Pattern pattern = Pattern.compile(i);
-				final Predicate<String> p = s -> pattern.matcher(s).matches();
-				ignorePredicate.add(p);
-			} catch (final PatternSyntaxException e) {
-				final Predicate<String> p = s -> s.equals(i);
-				log.info("{} value contains an invalid ignore regex {} treating as a literal string comparison",
-						configName, i);
-				ignorePredicate.add(p);
+	/**
+	 * Copies the schemas of every record in {@code records} that has not been seen yet, before the records are
+	 * passed to {@link #apply} one by one. With {@code registry.threads} above 0 the copies run concurrently, so a
+	 * batch with many new ids waits for the slowest copy rather than for all of them in turn.
+	 *
+	 * <p>Failures are not reported here. {@link #apply} reports them for the records concerned.</p>
+	 */
+	public void prefetch(Collection<? extends R> records) {
+		final RegistryPairContext context = this.context;
+		final List<CompletableFuture<Integer>> pending = new ArrayList<>();
+		for (final R r : records) {
+			final String topic = r.topic();
+			if (ignoreTopics.ignored(topic)) {
+				continue;
 			}
+			if (transferKeys) {
+				prefetch(context, r.key(), topic, true, pending);
+			}
+			prefetch(context, r.value(), topic, false, pending);
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+		log.trace("Prefetching {} schemas", pending.size());
+		try {
+			CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			log.debug("Unable to prefetch every schema, the affected records will retry", AsyncRegistryClient.unwrap(e));
+		}
+	}
+
+	private void prefetch(RegistryPairContext context, Object data, String topic, boolean isKey, List<CompletableFuture<Integer>> pending) {
+		if (!(data instanceof byte[])) {
+			return;
+		}
+		final byte[] bytes = (byte[]) data;
+		if (bytes.length <= WIRE_FORMAT_PREFIX_LENGTH || bytes[0] != MAGIC_BYTE) {
+			return;
+		}
+		final int sourceSchemaId = ByteBuffer.wrap(bytes).getInt(1);
+		if (sourceSchemaId < 0) {
+			return;
+		}
+		final long cacheKey = context.cacheKey(topic, isKey, sourceSchemaId);
+		if (cacheKey != SchemaIdCache.NO_KEY && knownDestId(context, cacheKey, sourceSchemaId) == SchemaIdCache.NO_ID
+				&& negativeCache.get(cacheKey) == null) {
+			// repeated ids in the batch get the future of the first one back
+			pending.add(resolve(context, cacheKey, sourceSchemaId, topic, isKey));
 		}
-		return ignorePredicate;
 	}
 
 	@Override
 	public R apply(R r) {
 		final String topic = r.topic();
 
-		for (final Predicate<String> p : ignoreTopics) {
-			if (p.test(topic)) {
-				return r;
-			}
+		if (ignoreTopics.ignored(topic)) {
+			metrics.recordIgnored();
+			return r;
 		}
 
 		// Transcribe the key's schema id
@@ -173,7 +386,7 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 		final Schema keySchema = r.keySchema();
 
 		Object updatedKey = key;
-		Optional<Integer> destKeySchemaId;
+		int destKeySchemaId;
 		if (transferKeys) {
 			if (ConnectSchemaUtil.isBytesSchema(keySchema) || key instanceof byte[]) {
 				if (key == null) {
@@ -182,12 +395,20 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 					final byte[] keyAsBytes = (byte[]) key;
 					final int keyByteLength = keyAsBytes.length;
 					if (keyByteLength <= 5) {
-						throw new SerializationException(String.format("Unexpected byte[] length %d in topic %s for Avro record key.", keyByteLength, topic));
+						metrics.recordFailure(TransferMetrics.Failure.INVALID_WIRE_FORMAT);
+						throw new SerializationException(String.format("Unexpected byte[] length %d in topic %s for record key.", keyByteLength, topic));
 					}
 					final ByteBuffer b = ByteBuffer.wrap(keyAsBytes);
 					destKeySchemaId = copySchema(b, topic, true);
-					b.putInt(1, destKeySchemaId.orElseThrow(()
-							-> new ConnectException(String.format("Transform failed for topic %s. Unable to update record schema id. (isKey=true)", topic))));
+					if (destKeySchemaId == SchemaIdCache.NO_ID) {
+						throw new ConnectException(String.format("Transform failed for topic %s. Unable to update record schema id. (isKey=true)", topic));
+					}
+					final int sourceKeySchemaId = b.getInt(1);
+					if (destKeySchemaId != sourceKeySchemaId) {
+						TransferEvents.idRewrite(topic, true, sourceKeySchemaId, destKeySchemaId);
+						b.putInt(1, destKeySchemaId);
+					}
+					metrics.recordTransformed(true);
 					updatedKey = b.array();
 				}
 			} else {
@@ -203,7 +424,7 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 		final Schema valueSchema = r.valueSchema();
 
 		Object updatedValue = value;
-		Optional<Integer> destValueSchemaId;
+		int destValueSchemaId;
 		if (ConnectSchemaUtil.isBytesSchema(valueSchema) || value instanceof byte[]) {
 			if (value == null) {
 				log.trace("Passing through null record value");
@@ -211,12 +432,20 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 				final byte[] valueAsBytes = (byte[]) value;
 				final int valueByteLength = valueAsBytes.length;
 				if (valueByteLength <= 5) {
-					throw new SerializationException(String.format("Unexpected byte[] in topic %s length %d for Avro record value.", topic, valueByteLength));
+					metrics.recordFailure(TransferMetrics.Failure.INVALID_WIRE_FORMAT);
+					throw new SerializationException(String.format("Unexpected byte[] in topic %s length %d for record value.", topic, valueByteLength));
 				}
 				final ByteBuffer b = ByteBuffer.wrap(valueAsBytes);
 				destValueSchemaId = copySchema(b, topic, false);
-				b.putInt(1, destValueSchemaId.orElseThrow(()
-						-> new ConnectException(String.format("Transform failed. Unable to update record schema id. (isKey=false) topic %s", topic))));
+				if (destValueSchemaId == SchemaIdCache.NO_ID) {
+					throw new ConnectException(String.format("Transform failed. Unable to update record schema id. (isKey=false) topic %s", topic));
+				}
+				final int sourceValueSchemaId = b.getInt(1);
+				if (destValueSchemaId != sourceValueSchemaId) {
+					TransferEvents.idRewrite(topic, false, sourceValueSchemaId, destValueSchemaId);
+					b.putInt(1, destValueSchemaId);
+				}
+				metrics.recordTransformed(false);
 				updatedValue = b.array();
 			}
 		} else {
@@ -237,58 +466,307 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 							r.timestamp());
 	}
 
-	protected Optional<Integer> copySchema(ByteBuffer buffer, String topic, boolean isKey) {
-		SchemaAndId schemaAndDestId;
-		if (buffer.get() == MAGIC_BYTE) {
-			final int sourceSchemaId = buffer.getInt();
-
-			schemaAndDestId = schemaCache.get(sourceSchemaId);
-			if (schemaAndDestId != null) {
-				log.trace("Schema id {} has been seen before. Not registering with destination registry again.");
-			} else { // cache miss
-				log.trace("Schema id {} has not been seen before", sourceSchemaId);
-				schemaAndDestId = new SchemaAndId();
-				try {
-					log.trace("Looking up schema id {} in source registry", sourceSchemaId);
-					// Can't do getBySubjectAndId because that requires a Schema object for the strategy
-					ParsedSchema schema = sourceSchemaRegistryClient.getSchemaById(sourceSchemaId);
-					schemaAndDestId.schema = schemaAndDestId.schema = schema instanceof AvroSchema ? ((AvroSchema) schema).rawSchema() : null;
-				} catch (IOException | RestClientException e) {
-					final String msg = e.getMessage();
-					log.warn("message was {}", msg);
-					if (msg.contains("failed to find schema") || msg.contains("not found")) {
-						log.warn("failed to find schema id {} in topic {}", sourceSchemaId, topic, e);
-						return Optional.empty();
-					} else {
-						String error = String.format("Unable to fetch source schema for id %d in topic %s", sourceSchemaId, topic);
-						log.error(error, e);
-						throw new ConnectException(error, e);
+	/**
+	 * @return the destination schema id, or {@link SchemaIdCache#NO_ID} when the schema could not be copied.
+	 */
+	protected int copySchema(ByteBuffer buffer, String topic, boolean isKey) {
+		if (buffer.get() != MAGIC_BYTE) {
+			metrics.recordFailure(TransferMetrics.Failure.INVALID_WIRE_FORMAT);
+			throw new SerializationException(String.format("Unknown magic byte in topic %s", topic));
+		}
+		final int sourceSchemaId = buffer.getInt();
+		if (sourceSchemaId < 0) {
+			log.warn("invalid schema id {} in topic {}", sourceSchemaId, topic);
+			metrics.recordFailure(TransferMetrics.Failure.INVALID_SCHEMA_ID);
+			return SchemaIdCache.NO_ID;
+		}
+
+		final RegistryPairContext context = this.context;
+		final long cacheKey = context.cacheKey(topic, isKey, sourceSchemaId);
+		final int cachedDestId = knownDestId(context, cacheKey, sourceSchemaId);
+		if (cachedDestId != SchemaIdCache.NO_ID) {
+			log.trace("Schema id {} has been seen before. Not registering with destination registry again.", sourceSchemaId);
+			metrics.recordCacheHit();
+			return cachedDestId;
+		}
+
+		final TransferMetrics.Failure recentFailure = negativeCache.get(cacheKey);
+		if (recentFailure != null) {
+			log.debug("Schema id {} in topic {} recently failed with {}, not retrying yet", sourceSchemaId, topic, recentFailure);
+			metrics.recordFailure(recentFailure);
+			return SchemaIdCache.NO_ID;
+		}
+		if (idTranslation != null && idTranslation.destinationId(sourceSchemaId) == SchemaIdCache.NO_ID) {
+			log.warn("schema id {} in topic {} cannot be imported under an id offset by {}", sourceSchemaId, topic, ConfigName.PRESERVE_IDS_OFFSET);
+			metrics.recordFailure(TransferMetrics.Failure.INVALID_SCHEMA_ID);
+			return SchemaIdCache.NO_ID;
+		}
+
+		// cache miss
+		metrics.recordCacheMiss();
+		log.trace("Schema id {} has not been seen before", sourceSchemaId);
+		final Object missEvent = TransferEvents.beginCacheMiss();
+		int destSchemaId = SchemaIdCache.NO_ID;
+		try {
+			destSchemaId = awaitInFlight(resolve(context, cacheKey, sourceSchemaId, topic, isKey));
+			return destSchemaId;
+		} finally {
+			TransferEvents.endCacheMiss(missEvent, topic, isKey, sourceSchemaId, destSchemaId);
+		}
+	}
+
+	/**
+	 * @return the destination id already known for {@code cacheKey}, or {@link SchemaIdCache#NO_ID}. When ids are
+	 * preserved only imported ids count, as the context may hold mappings learnt while the destination assigned ids.
+	 */
+	private int knownDestId(RegistryPairContext context, long cacheKey, int sourceSchemaId) {
+		final IdTranslation idTranslation = this.idTranslation;
+		if (idTranslation == null) {
+			return context.schemaCache.get(cacheKey);
+		}
+		return context.importedIds.contains(cacheKey) ? idTranslation.destinationId(sourceSchemaId) : SchemaIdCache.NO_ID;
+	}
+
+	/**
+	 * Starts copying a schema that missed the cache, unless a copy for the same key is already underway, in which
+	 * case that copy's future is returned. Records without a key always make their own copy.
+	 *
+	 * @return the destination schema id, or {@link SchemaIdCache#NO_ID} when the schema could not be copied.
+	 */
+	private CompletableFuture<Integer> resolve(RegistryPairContext context, long cacheKey, int sourceSchemaId, String topic, boolean isKey) {
+		if (cacheKey == SchemaIdCache.NO_KEY) {
+			try {
+				return transferSchema(context, cacheKey, sourceSchemaId, topic, isKey);
+			} catch (RuntimeException e) {
+				final CompletableFuture<Integer> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}
+		}
+		final CompletableFuture<Integer> pending = new CompletableFuture<>();
+		final CompletableFuture<Integer> leader = context.inFlight.putIfAbsent(cacheKey, pending);
+		if (leader != null) {
+			log.trace("Schema id {} for topic {} is already being transferred, waiting for it", sourceSchemaId, topic);
+			return leader;
+		}
+		// the previous leader may have finished between our cache lookup and claiming the key
+		final int cachedDestId = knownDestId(context, cacheKey, sourceSchemaId);
+		CompletableFuture<Integer> transfer;
+		if (cachedDestId != SchemaIdCache.NO_ID) {
+			transfer = CompletableFuture.completedFuture(cachedDestId);
+		} else {
+			try {
+				transfer = transferSchema(context, cacheKey, sourceSchemaId, topic, isKey);
+			} catch (RuntimeException e) {
+				transfer = new CompletableFuture<>();
+				transfer.completeExceptionally(e);
+			}
+		}
+		transfer.whenComplete((destSchemaId, e) -> {
+			// leave the map before waking waiters, so a failed copy can be retried by the next record
+			context.inFlight.remove(cacheKey, pending);
+			if (e != null) {
+				pending.completeExceptionally(AsyncRegistryClient.unwrap(e));
+			} else {
+				pending.complete(destSchemaId);
+			}
+		});
+		return pending;
+	}
+
+	private CompletableFuture<Integer> transferSchema(RegistryPairContext context, long cacheKey, int sourceSchemaId, String topic, boolean isKey) {
+		final long deadlineNanos = retryPolicy.deadlineNanos();
+		final SourceSchemaCache sourceSchemas = this.sourceSchemas;
+		final ParsedSchema knownSchema = sourceSchemas.get(sourceSchemaId);
+		if (knownSchema != null) {
+			log.trace("Schema id {} was fetched before for another topic", sourceSchemaId);
+			return registerSchema(context, cacheKey, sourceSchemaId, knownSchema, topic, isKey, deadlineNanos);
+		}
+
+		log.trace("Looking up schema id {} in source registry", sourceSchemaId);
+		final TransferMetrics metrics = this.metrics;
+		final NegativeCache negativeCache = this.negativeCache;
+		final Object fetchEvent = TransferEvents.beginSourceFetch();
+		final long fetchStart = System.nanoTime();
+		// Can't do getBySubjectAndId because that requires a Schema object for the strategy
+		return retryPolicy.call(() -> context.source.getSchemaById(sourceSchemaId), deadlineNanos, context::retryScheduler, context.retryExecutor(), metrics::recordRetry)
+				.handle((parsedSchema, e) -> {
+					context.latencies.record(RegistryLatencies.Operation.SOURCE_FETCH, System.nanoTime() - fetchStart);
+					if (e == null) {
+						TransferEvents.endSourceFetch(fetchEvent, topic, sourceSchemaId, "found", null);
+						sourceSchemas.put(sourceSchemaId, parsedSchema);
+						return parsedSchema;
 					}
-				}
+					final Throwable cause = AsyncRegistryClient.unwrap(e);
+					if (cause instanceof RetriableException) {
+						TransferEvents.endSourceFetch(fetchEvent, topic, sourceSchemaId, "circuit open", cause);
+						throw circuitOpen((RetriableException) cause, metrics);
+					}
+					if (isNotFound(cause)) {
+						TransferEvents.endSourceFetch(fetchEvent, topic, sourceSchemaId, "not found", cause);
+						log.warn("failed to find schema id {} in topic {}", sourceSchemaId, topic, cause);
+						metrics.recordFailure(TransferMetrics.Failure.SCHEMA_NOT_FOUND);
+						negativeCache.put(cacheKey, TransferMetrics.Failure.SCHEMA_NOT_FOUND);
+						return null;
+					}
+					TransferEvents.endSourceFetch(fetchEvent, topic, sourceSchemaId, "failed", cause);
+					String error = String.format("Unable to fetch source schema for id %d in topic %s", sourceSchemaId, topic);
+					log.error(error, cause);
+					metrics.recordFailure(TransferMetrics.Failure.SOURCE_FETCH);
+					throw new ConnectException(error, cause);
+				})
+				.thenCompose(parsedSchema -> parsedSchema == null
+						? CompletableFuture.completedFuture(SchemaIdCache.NO_ID)
+						: registerSchema(context, cacheKey, sourceSchemaId, parsedSchema, topic, isKey, deadlineNanos));
+	}
+
+	/**
+	 * A registry whose circuit breaker is open is not asked at all, so the schema is not negatively cached. The
+	 * exception is passed on as is, letting the framework retry the record once the registry is back. Connect
+	 * only does so with {@code errors.retry.timeout} above 0, otherwise it handles the record like any other
+	 * failed one, by {@code errors.tolerance}.
+	 */
+	private static RetriableException circuitOpen(RetriableException e, TransferMetrics metrics) {
+		log.debug("Not copying schema: {}", e.getMessage());
+		metrics.recordFailure(TransferMetrics.Failure.CIRCUIT_OPEN);
+		return e;
+	}
+
+	private static boolean isNotFound(Throwable cause) {
+		if (!(cause instanceof RestClientException)) {
+			return false;
+		}
+		final RestClientException e = (RestClientException) cause;
+		return e.getErrorCode() == SCHEMA_NOT_FOUND_ERROR_CODE || e.getStatus() == HTTP_NOT_FOUND;
+	}
+
+	private CompletableFuture<Integer> registerSchema(RegistryPairContext context, long cacheKey, int sourceSchemaId,
+			ParsedSchema parsedSchema, String topic, boolean isKey, long deadlineNanos) {
+		final String subjectName = subjectNames.subjectName(cacheKey, topic, isKey, parsedSchema);
+		if (subjectName == null) {
+			// strategies may decline to name a subject, e.g. RecordNameStrategy for a primitive schema
+			metrics.recordFailure(TransferMetrics.Failure.DESTINATION_REGISTER);
+			negativeCache.put(cacheKey, TransferMetrics.Failure.DESTINATION_REGISTER);
+			log.error("No destination subject for source schema id {} in topic {}", sourceSchemaId, topic);
+			return CompletableFuture.completedFuture(SchemaIdCache.NO_ID);
+		}
+		if (idTranslation != null && context.importedIds.contains(subjectName, sourceSchemaId)) {
+			log.trace("Schema id {} is already imported under subject {}", sourceSchemaId, subjectName);
+			context.importedIds.add(cacheKey);
+			return CompletableFuture.completedFuture(idTranslation.destinationId(sourceSchemaId));
+		}
+		final int registeredDestId = context.subjectRegistrations.get(subjectName, sourceSchemaId);
+		if (registeredDestId != SchemaIdCache.NO_ID && idTranslation != null
+				&& registeredDestId != idTranslation.destinationId(sourceSchemaId)) {
+			// learnt without preserving ids, e.g. from a snapshot, so the import below decides
+			log.debug("Schema id {} is registered under subject {} as id {}, not the preserved id", sourceSchemaId, subjectName,
+					registeredDestId);
+		} else if (registeredDestId != SchemaIdCache.NO_ID) {
+			log.trace("Schema id {} is already registered under subject {}", sourceSchemaId, subjectName);
+			if (idTranslation != null) {
+				context.importedIds.add(subjectName, sourceSchemaId);
+				context.importedIds.add(cacheKey);
+			} else if (cacheKey != SchemaIdCache.NO_KEY) {
+				context.schemaCache.put(cacheKey, registeredDestId);
+			}
+			return CompletableFuture.completedFuture(registeredDestId);
+		}
 
-				try {
-					log.trace("Registering schema {} to destination registry", schemaAndDestId.schema);
-					// It could be possible that the destination naming strategy is different from the source
-					final AvroSchema avroSchema = new AvroSchema(schemaAndDestId.schema);
-					final String subjectName = subjectNameStrategy.subjectName(topic, isKey, avroSchema);
-					schemaAndDestId.id = destSchemaRegistryClient.register(subjectName, avroSchema);
-					schemaCache.put(sourceSchemaId, schemaAndDestId);
-				} catch (IOException | RestClientException e) {
-					log.error(String.format("Unable to register source schema id %d for topic %s to destination registry.",
-							sourceSchemaId, topic), e);
-					return Optional.empty();
+		log.trace("Registering schema id {} to destination registry under subject {}", sourceSchemaId, subjectName);
+		final TransferMetrics metrics = this.metrics;
+		final NegativeCache negativeCache = this.negativeCache;
+		final IdTranslation idTranslation = this.idTranslation;
+		final boolean lookupFirst = this.lookupFirst;
+		final Object registerEvent = TransferEvents.beginDestRegister();
+		return retryPolicy.call(() -> context.referenceResolver.forDestination(parsedSchema)
+						.thenCompose(destSchema -> {
+							// referenced schemas are copied by now, so only the schema's own registration is timed
+							final long registerStart = System.nanoTime();
+							final CompletableFuture<Integer> registration = idTranslation != null
+									? context.dest.call(() -> context.importSchema(subjectName, destSchema, 0, sourceSchemaId))
+									: lookupFirst
+											? lookupOrRegister(context, subjectName, destSchema, metrics)
+											: context.dest.register(subjectName, destSchema);
+							return registration.whenComplete((destSchemaId, e) -> context.latencies.record(
+									RegistryLatencies.Operation.DESTINATION_REGISTER, System.nanoTime() - registerStart));
+						}),
+						deadlineNanos, context::retryScheduler, context.retryExecutor(), metrics::recordRetry)
+				.handle((destSchemaId, e) -> {
+					TransferEvents.endDestRegister(registerEvent, subjectName, sourceSchemaId, e == null ? destSchemaId : SchemaIdCache.NO_ID);
+					if (e != null) {
+						final Throwable cause = AsyncRegistryClient.unwrap(e);
+						if (cause instanceof RetriableException) {
+							throw circuitOpen((RetriableException) cause, metrics);
+						}
+						metrics.recordFailure(TransferMetrics.Failure.DESTINATION_REGISTER);
+						negativeCache.put(cacheKey, TransferMetrics.Failure.DESTINATION_REGISTER);
+						log.error(String.format("Unable to register source schema id %d for topic %s to destination registry.",
+								sourceSchemaId, topic), cause);
+						return SchemaIdCache.NO_ID;
+					}
+					if (idTranslation != null) {
+						// the id follows from the source id, so there is no mapping to keep or share
+						context.importedIds.add(cacheKey);
+						return destSchemaId;
+					}
+					context.subjectRegistrations.put(subjectName, sourceSchemaId, destSchemaId);
+					if (cacheKey != SchemaIdCache.NO_KEY) {
+						context.schemaCache.put(cacheKey, destSchemaId);
+					}
+					context.publish(subjectName, sourceSchemaId, destSchemaId);
+					return destSchemaId;
+				});
+	}
+
+	/**
+	 * Asks the destination registry whether it has {@code schema}, and only registers it when it does not.
+	 */
+	private static CompletableFuture<Integer> lookupOrRegister(RegistryPairContext context, String subjectName, ParsedSchema schema,
+			TransferMetrics metrics) {
+		return context.dest.call(() -> {
+			try {
+				final int destSchemaId = context.destClient.getId(subjectName, schema);
+				metrics.recordRegistrationSkipped();
+				return destSchemaId;
+			} catch (RestClientException e) {
+				if (!isNotFound(e)) {
+					throw e;
 				}
 			}
-		} else {
-			throw new SerializationException(String.format("Unknown magic byte in topic %s", topic));
+			return context.destClient.register(subjectName, schema);
+		});
+	}
+
+	private static int awaitInFlight(CompletableFuture<Integer> leader) {
+		try {
+			return leader.join();
+		} catch (CompletionException e) {
+			final Throwable cause = AsyncRegistryClient.unwrap(e);
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new ConnectException(cause);
 		}
-		return Optional.ofNullable(schemaAndDestId.id);
+	}
+
+	TransferMetrics metrics() {
+		return metrics;
+	}
+
+	RegistryPairContext context() {
+		return context;
 	}
 
 	@Override
 	public void close() {
-		this.sourceSchemaRegistryClient = null;
-		this.destSchemaRegistryClient = null;
+		if (this.metrics != null) {
+			this.metrics.close();
+			this.metrics = null;
+		}
+		if (this.context != null) {
+			this.context.release();
+			this.context = null;
+		}
 	}
 
 	interface ConfigName {
@@ -298,49 +776,39 @@ public class SchemaRegistryTransfer<R extends ConnectRecord<R>> implements Trans
 		String DEST_SCHEMA_REGISTRY_URL = "dest." + AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG;
 		String DEST_BASIC_AUTH_CREDENTIALS_SOURCE = "dest." + AbstractKafkaSchemaSerDeConfig.BASIC_AUTH_CREDENTIALS_SOURCE;
 		String DEST_USER_INFO = "dest." + AbstractKafkaSchemaSerDeConfig.USER_INFO_CONFIG;
+		String SRC_KEY_SUBJECT_NAME_STRATEGY = "src." + AbstractKafkaSchemaSerDeConfig.KEY_SUBJECT_NAME_STRATEGY;
+		String SRC_VALUE_SUBJECT_NAME_STRATEGY = "src." + AbstractKafkaSchemaSerDeConfig.VALUE_SUBJECT_NAME_STRATEGY;
+		String DEST_KEY_SUBJECT_NAME_STRATEGY = "dest." + AbstractKafkaSchemaSerDeConfig.KEY_SUBJECT_NAME_STRATEGY;
+		String DEST_VALUE_SUBJECT_NAME_STRATEGY = "dest." + AbstractKafkaSchemaSerDeConfig.VALUE_SUBJECT_NAME_STRATEGY;
 		String SCHEMA_CAPACITY = "schema.capacity";
 		String TRANSFER_KEYS = "transfer.message.keys";
 		String INCLUDE_HEADERS = "include.message.headers";
 		String IGNORE_LIST = "ignore.list";
-	}
-
-	private static class SchemaAndId {
-		private Integer id;
-		private org.apache.avro.Schema schema;
-
-		SchemaAndId() {
-		}
-
-		SchemaAndId(int id, org.apache.avro.Schema schema) {
-			this.id = id;
-			this.schema = schema;
-		}
-
-		@Override
-		public boolean equals(Object o) {
-			if (this == o) {
-				return true;
-			}
-			if (o == null || getClass() != o.getClass()) {
-				return false;
-			}
-			final SchemaAndId schemaAndId = (SchemaAndId) o;
-			return Objects.equals(id, schemaAndId.id) &&
-					Objects.equals(schema, schemaAndId.schema);
-		}
-
-		@Override
-		public int hashCode() {
-			return Objects.hash(id, schema);
-		}
-
-		@Override
-		public String toString() {
-			return "SchemaAndId{" +
-					"id=" + id +
-					", schema=" + schema +
-					'}';
-		}
+		String SHARED_CONTEXT = "shared.context";
+		String WARMUP_ENABLED = "warmup.enabled";
+		String WARMUP_CONCURRENCY = "warmup.concurrency";
+		String WARMUP_TIMEOUT_MS = "warmup.timeout.ms";
+		String SNAPSHOT_PATH = "snapshot.path";
+		String SNAPSHOT_INTERVAL_MS = "snapshot.interval.ms";
+		String MAPPING_STORE_TOPIC = MAPPING_STORE_PREFIX + "topic";
+		String MAPPING_STORE_BOOTSTRAP_SERVERS = MAPPING_STORE_PREFIX + "bootstrap.servers";
+		String MAPPING_STORE_LOAD_TIMEOUT_MS = MAPPING_STORE_PREFIX + "load.timeout.ms";
+		String REGISTRY_THREADS = "registry.threads";
+		String LATENCY_LOG_INTERVAL_MS = "latency.log.interval.ms";
+		String NEGATIVE_CACHE_TTL_MS = "negative.cache.ttl.ms";
+		String NEGATIVE_CACHE_CAPACITY = "negative.cache.capacity";
+		String SOURCE_SCHEMA_CACHE_CAPACITY = "source.schema.cache.capacity";
+		String PRESERVE_IDS = "preserve.ids";
+		String PRESERVE_IDS_OFFSET = "preserve.ids.offset";
+		String REGISTRY_RETRY_MAX_ATTEMPTS = "registry.retry.max.attempts";
+		String REGISTRY_RETRY_BACKOFF_MS = "registry.retry.backoff.ms";
+		String REGISTRY_RETRY_BACKOFF_MAX_MS = "registry.retry.backoff.max.ms";
+		String REGISTRY_RETRY_DEADLINE_MS = "registry.retry.deadline.ms";
+		String REGISTRY_CIRCUIT_FAILURE_THRESHOLD = "registry.circuit.failure.threshold";
+		String REGISTRY_CIRCUIT_OPEN_MS = "registry.circuit.open.ms";
+		String REGISTRY_LOOKUP_FIRST = "registry.lookup.first";
+		String SRC_LOAD_BALANCE = "src.schema.registry.load.balance";
+		String SRC_HEDGE_DELAY_MS = "src.schema.registry.hedge.delay.ms";
 	}
 
 }
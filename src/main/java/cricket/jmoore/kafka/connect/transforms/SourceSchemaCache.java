@@ -0,0 +1,64 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+
+/**
+ * Keeps the most recently used source schemas by source schema id, so that an id that misses the
+ * {@link SchemaIdCache} for another topic, or for the other side of a record, is registered without fetching it
+ * from the source registry again.
+ *
+ * <p>The {@link SchemaIdCache} only holds destination ids, so this is the only place a schema outlives its copy.
+ * It is bounded and disabled when its capacity is 0.</p>
+ *
+ * <p>A single source client caches schemas by id as well, so this only saves requests when reads are spread over
+ * the source registry's nodes by {@link RegistryEndpoints}. Each node then has a client and a cache of its own,
+ * and the next fetch of the same id tends to go to the node that has not served it yet.</p>
+ */
+class SourceSchemaCache {
+	private final int capacity;
+	// guarded by this
+	private final LinkedHashMap<Integer, ParsedSchema> schemas;
+
+	SourceSchemaCache(int capacity) {
+		this.capacity = capacity;
+		this.schemas = new LinkedHashMap<Integer, ParsedSchema>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ParsedSchema> eldest) {
+				return size() > SourceSchemaCache.this.capacity;
+			}
+		};
+	}
+
+	boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	/**
+	 * @return the schema fetched earlier for {@code sourceId}, or null
+	 */
+	ParsedSchema get(int sourceId) {
+		if (!isEnabled()) {
+			return null;
+		}
+		synchronized (this) {
+			return schemas.get(sourceId);
+		}
+	}
+
+	void put(int sourceId, ParsedSchema schema) {
+		if (!isEnabled()) {
+			return;
+		}
+		synchronized (this) {
+			schemas.put(sourceId, schema);
+		}
+	}
+
+	synchronized int size() {
+		return schemas.size();
+	}
+}
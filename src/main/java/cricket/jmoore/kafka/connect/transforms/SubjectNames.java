@@ -0,0 +1,76 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.serializers.subject.TopicNameStrategy;
+import io.confluent.kafka.serializers.subject.strategy.SubjectNameStrategy;
+
+/**
+ * The destination subject of each schema, named by the configured key and value {@link SubjectNameStrategy} and
+ * remembered per topic, record side and source schema id, which is what a {@link SchemaIdCache} key is made of.
+ *
+ * <p>Strategies naming subjects after the record, such as {@code RecordNameStrategy}, read the name out of the
+ * schema, which for Protobuf means walking its descriptor. A schema that misses the cache again, because its
+ * mapping was evicted or its copy failed, reuses the name found the first time instead. Once {@code capacity}
+ * names are held they are all forgotten, as most of them belong to mappings the cache holds anyway.</p>
+ */
+class SubjectNames {
+	private final SubjectNameStrategy keyStrategy;
+	private final SubjectNameStrategy valueStrategy;
+	private final int capacity;
+	private final Map<Long, String> names = new ConcurrentHashMap<>();
+
+	SubjectNames(SubjectNameStrategy keyStrategy, SubjectNameStrategy valueStrategy, int capacity) {
+		this.keyStrategy = keyStrategy;
+		this.valueStrategy = valueStrategy;
+		this.capacity = capacity;
+	}
+
+	static SubjectNames topicNames(int capacity) {
+		return new SubjectNames(new TopicNameStrategy(), new TopicNameStrategy(), capacity);
+	}
+
+	/**
+	 * @param cacheKey the {@link SchemaIdCache#key} of {@code topic}, {@code isKey} and the source id of {@code schema},
+	 * or {@link SchemaIdCache#NO_KEY} to name the subject without remembering it
+	 */
+	String subjectName(long cacheKey, String topic, boolean isKey, ParsedSchema schema) {
+		final String known = names.get(cacheKey);
+		if (known != null) {
+			return known;
+		}
+		final String name = (isKey ? keyStrategy : valueStrategy).subjectName(topic, isKey, schema);
+		if (name == null || cacheKey == SchemaIdCache.NO_KEY) {
+			return name;
+		}
+		if (names.size() >= capacity) {
+			names.clear();
+		}
+		names.put(cacheKey, name);
+		return name;
+	}
+
+	/**
+	 * @return the class names of the key and then the value strategy
+	 */
+	List<String> strategies() {
+		return Arrays.asList(keyStrategy.getClass().getName(), valueStrategy.getClass().getName());
+	}
+
+	/**
+	 * @return whether {@code other} names subjects with strategies of the same classes
+	 */
+	boolean sameStrategies(SubjectNames other) {
+		return keyStrategy.getClass() == other.keyStrategy.getClass()
+				&& valueStrategy.getClass() == other.valueStrategy.getClass();
+	}
+
+	int size() {
+		return names.size();
+	}
+}
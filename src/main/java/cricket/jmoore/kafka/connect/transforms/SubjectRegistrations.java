@@ -0,0 +1,75 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Remembers which source schema ids have already been registered under which destination subject, and the
+ * destination id the registry returned.
+ *
+ * <p>This is only consulted on a {@link SchemaIdCache} miss, e.g. when a schema that is already known under one
+ * topic shows up on another topic that resolves to the same subject, or after the cache evicted an entry.</p>
+ *
+ * <p>Once {@code capacity} pairs are held they are all forgotten, which only costs the next miss of each a
+ * registration the destination registry answers with the id it already assigned.</p>
+ */
+class SubjectRegistrations {
+	private final int capacity;
+	private final Map<String, Map<Integer, Integer>> registrations = new ConcurrentHashMap<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong modifications = new AtomicLong();
+
+	SubjectRegistrations(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the destination id of {@code sourceId} in {@code subject}, or {@link SchemaIdCache#NO_ID} when this
+	 * pair has not been registered yet.
+	 */
+	int get(String subject, int sourceId) {
+		final Map<Integer, Integer> ids = registrations.get(subject);
+		if (ids == null) {
+			return SchemaIdCache.NO_ID;
+		}
+		final Integer destId = ids.get(sourceId);
+		return destId == null ? SchemaIdCache.NO_ID : destId;
+	}
+
+	void put(String subject, int sourceId, int destId) {
+		if (size.get() >= capacity && get(subject, sourceId) == SchemaIdCache.NO_ID) {
+			registrations.clear();
+			size.set(0);
+		}
+		final Integer previous = registrations.computeIfAbsent(subject, s -> new ConcurrentHashMap<>()).put(sourceId, destId);
+		if (previous == null) {
+			size.incrementAndGet();
+		}
+		if (previous == null || previous != destId) {
+			modifications.incrementAndGet();
+		}
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Visits a weakly consistent view of every subject and its source to destination id pairs.
+	 */
+	void forEachSubject(BiConsumer<String, Map<Integer, Integer>> action) {
+		registrations.forEach((subject, ids) -> action.accept(subject, Collections.unmodifiableMap(ids)));
+	}
+
+	/**
+	 * @return a counter that increases whenever a new pair is added, for callers that persist this index.
+	 */
+	long modifications() {
+		return modifications.get();
+	}
+}
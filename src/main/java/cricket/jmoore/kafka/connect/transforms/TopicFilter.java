@@ -0,0 +1,141 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides whether a topic is on the ignore list.
+ *
+ * <p>Entries without regex metacharacters, and entries that are not valid regexes, are compared literally through
+ * a hash set. All other entries are joined into one alternation, so a topic is matched against the whole list in a
+ * single pass. Entries with back-references keep their own pattern, since joining would renumber their groups.</p>
+ *
+ * <p>The verdict for each topic is remembered, so in steady state a record costs one map lookup. Once
+ * {@link #MAX_CACHED_TOPICS} verdicts are held they are all forgotten, so a connector whose topics come and go
+ * keeps caching the ones it currently reads.</p>
+ */
+class TopicFilter {
+	private static final Logger log = LoggerFactory.getLogger(TopicFilter.class);
+
+	static final int MAX_CACHED_TOPICS = 10_000;
+
+	private static final String METACHARACTERS = "\\.[]{}()*+?^$|";
+	private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+	private final Set<String> literals;
+	// null when no entry needs a regex
+	private final Pattern combined;
+	private final List<Pattern> separate;
+	private final Map<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+	private TopicFilter(Set<String> literals, Pattern combined, List<Pattern> separate) {
+		this.literals = literals;
+		this.combined = combined;
+		this.separate = separate;
+	}
+
+	/**
+	 * @param configName only used in log messages
+	 */
+	static TopicFilter compile(List<String> entries, String configName) {
+		final Set<String> literals = new HashSet<>();
+		final List<Pattern> separate = new ArrayList<>();
+		final StringBuilder alternation = new StringBuilder();
+		for (final String entry : entries) {
+			if (isLiteral(entry)) {
+				literals.add(entry);
+				continue;
+			}
+			final Pattern pattern;
+			try {
+				pattern = Pattern.compile(entry);
+			} catch (final PatternSyntaxException e) {
+				log.info("{} value contains an invalid ignore regex {} treating as a literal string comparison",
+						configName, entry);
+				literals.add(entry);
+				continue;
+			}
+			if (BACK_REFERENCE.matcher(entry).find()) {
+				separate.add(pattern);
+			} else {
+				if (alternation.length() > 0) {
+					alternation.append('|');
+				}
+				alternation.append("(?:").append(entry).append(')');
+			}
+		}
+
+		Pattern combined = null;
+		if (alternation.length() > 0) {
+			try {
+				combined = Pattern.compile(alternation.toString());
+			} catch (final PatternSyntaxException e) {
+				// e.g. two entries declaring the same named group, fall back to one pattern per entry
+				for (final String entry : entries) {
+					if (!literals.contains(entry) && !BACK_REFERENCE.matcher(entry).find()) {
+						separate.add(Pattern.compile(entry));
+					}
+				}
+			}
+		}
+		return new TopicFilter(literals, combined, separate);
+	}
+
+	private static boolean isLiteral(String entry) {
+		for (int i = 0; i < entry.length(); i++) {
+			if (METACHARACTERS.indexOf(entry.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	boolean isEmpty() {
+		return literals.isEmpty() && combined == null && separate.isEmpty();
+	}
+
+	boolean ignored(String topic) {
+		if (isEmpty()) {
+			return false;
+		}
+		final Boolean verdict = verdicts.get(topic);
+		if (verdict != null) {
+			return verdict;
+		}
+		final boolean ignored = matches(topic);
+		if (verdicts.size() >= MAX_CACHED_TOPICS) {
+			verdicts.clear();
+		}
+		verdicts.put(topic, ignored);
+		return ignored;
+	}
+
+	int cachedVerdicts() {
+		return verdicts.size();
+	}
+
+	private boolean matches(String topic) {
+		if (literals.contains(topic)) {
+			return true;
+		}
+		if (combined != null && combined.matcher(topic).matches()) {
+			return true;
+		}
+		for (final Pattern pattern : separate) {
+			if (pattern.matcher(topic).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,74 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+/**
+ * Emits the transform's Java Flight Recorder events, see {@link JfrTransferEvents}, when the JVM supports JFR.
+ *
+ * <p>This class never refers to {@code jdk.jfr} itself, so the transform still loads on JVMs without it. Events are
+ * only created while a recording has them enabled; otherwise the {@code begin} methods return null and every other
+ * method returns right away.</p>
+ */
+final class TransferEvents {
+	private static final boolean AVAILABLE = isAvailable();
+
+	private TransferEvents() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, TransferEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return a handle to pass to {@link #endCacheMiss}, or null when the event is disabled
+	 */
+	static Object beginCacheMiss() {
+		return AVAILABLE ? JfrTransferEvents.beginCacheMiss() : null;
+	}
+
+	static void endCacheMiss(Object event, String topic, boolean isKey, int sourceId, int destId) {
+		if (event != null) {
+			JfrTransferEvents.endCacheMiss(event, topic, isKey, sourceId, destId);
+		}
+	}
+
+	/**
+	 * @return a handle to pass to {@link #endSourceFetch}, or null when the event is disabled
+	 */
+	static Object beginSourceFetch() {
+		return AVAILABLE ? JfrTransferEvents.beginSourceFetch() : null;
+	}
+
+	/**
+	 * @param outcome one of {@code found}, {@code not found}, {@code circuit open} or {@code failed}
+	 * @param error the failure, or null when the schema was fetched
+	 */
+	static void endSourceFetch(Object event, String topic, int sourceId, String outcome, Throwable error) {
+		if (event != null) {
+			JfrTransferEvents.endSourceFetch(event, topic, sourceId, outcome, error);
+		}
+	}
+
+	/**
+	 * @return a handle to pass to {@link #endDestRegister}, or null when the event is disabled
+	 */
+	static Object beginDestRegister() {
+		return AVAILABLE ? JfrTransferEvents.beginDestRegister() : null;
+	}
+
+	static void endDestRegister(Object event, String subject, int sourceId, int destId) {
+		if (event != null) {
+			JfrTransferEvents.endDestRegister(event, subject, sourceId, destId);
+		}
+	}
+
+	static void idRewrite(String topic, boolean isKey, int sourceId, int destId) {
+		if (AVAILABLE) {
+			JfrTransferEvents.idRewrite(topic, isKey, sourceId, destId);
+		}
+	}
+}
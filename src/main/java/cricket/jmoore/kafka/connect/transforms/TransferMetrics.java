@@ -0,0 +1,164 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.Time;
+
+/**
+ * What one transform instance has been doing, registered with Kafka's {@link Metrics} and exposed over JMX as
+ * {@code kafka.connect.transforms:type=schema-registry-transfer-metrics,transform=<n>}, where {@code n} numbers
+ * the instances of the JVM in the order they were configured.
+ *
+ * <p>Counters on the record path are {@link LongAdder}s that are only summed when read, so recording costs an
+ * uncontended increment. Registry latencies are read from the context's {@link RegistryLatencies}, so instances
+ * sharing a context report the same, merged, distribution.</p>
+ */
+class TransferMetrics implements Closeable {
+	static final String JMX_PREFIX = "kafka.connect.transforms";
+	static final String GROUP = "schema-registry-transfer-metrics";
+
+	// numbers instances so that each gets its own MBean
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+	enum Failure {
+		INVALID_WIRE_FORMAT,
+		INVALID_SCHEMA_ID,
+		SCHEMA_NOT_FOUND,
+		SOURCE_FETCH,
+		DESTINATION_REGISTER,
+		CIRCUIT_OPEN;
+
+		String metricName() {
+			return "failures-" + name().toLowerCase(Locale.ROOT).replace('_', '-') + "-total";
+		}
+	}
+
+	private final Metrics metrics;
+	private final Map<String, String> tags;
+
+	private final LongAdder keysTransformed = new LongAdder();
+	private final LongAdder valuesTransformed = new LongAdder();
+	private final LongAdder recordsIgnored = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder registryRetries = new LongAdder();
+	private final LongAdder registrationsSkipped = new LongAdder();
+	private final LongAdder[] failures = new LongAdder[Failure.values().length];
+
+	TransferMetrics(RegistryPairContext context) {
+		final JmxReporter reporter = new JmxReporter();
+		reporter.configure(Collections.emptyMap());
+		this.metrics = new Metrics(new MetricConfig(), Collections.singletonList(reporter), Time.SYSTEM,
+				new KafkaMetricsContext(JMX_PREFIX));
+		this.tags = Collections.singletonMap("transform", String.valueOf(INSTANCES.incrementAndGet()));
+
+		counter("key-records-transformed-total", "The number of record keys whose schema id was rewritten.", keysTransformed);
+		counter("value-records-transformed-total", "The number of record values whose schema id was rewritten.", valuesTransformed);
+		counter("records-ignored-total", "The number of records passed through unchanged because their topic is on the ignore list.", recordsIgnored);
+		counter("cache-hit-total", "The number of schema ids translated from the cache.", cacheHits);
+		counter("cache-miss-total", "The number of schema ids that had to be looked up in the registries.", cacheMisses);
+		counter("registry-retry-total", "The number of registry calls retried after a transient failure.", registryRetries);
+		counter("registration-skipped-total", "The number of schemas found in the destination registry instead of registered with it.", registrationsSkipped);
+		for (final Failure failure : Failure.values()) {
+			final LongAdder adder = new LongAdder();
+			failures[failure.ordinal()] = adder;
+			counter(failure.metricName(), "The number of " + failure.name().toLowerCase(Locale.ROOT).replace('_', ' ') + " failures.", adder);
+		}
+		gauge("cache-eviction-total", "The number of mappings evicted from the cache, across all users of a shared context.",
+				() -> context.schemaCache.evictions());
+		gauge("in-flight-misses", "The number of cache misses currently waiting on a registry.",
+				() -> (long) context.inFlight.size());
+
+		gauge("source-registry-circuit-state", "The state of the source registry's circuit breaker: 0 closed, 1 open, 2 half-open. "
+				+ "With load balancing, the state of the source node in the best state.",
+				() -> (long) context.source.readState().ordinal());
+		gauge("destination-registry-circuit-state", "The state of the destination registry's circuit breaker: 0 closed, 1 open, 2 half-open.",
+				() -> (long) context.dest.breaker().state().ordinal());
+
+		gauge("source-fetch-hedged-total", "The number of schema fetches also sent to a second source registry node, across all users of a shared context.",
+				() -> {
+					final RegistryEndpoints endpoints = context.source.readEndpoints();
+					return endpoints == null ? 0L : endpoints.hedges();
+				});
+
+		latency(context.latencies, RegistryLatencies.Operation.SOURCE_FETCH, "fetching a schema from the source registry");
+		latency(context.latencies, RegistryLatencies.Operation.DESTINATION_REGISTER, "registering a schema with the destination registry");
+	}
+
+	private void counter(String name, String description, LongAdder adder) {
+		metrics.addMetric(metricName(name, description), (Gauge<Long>) (config, now) -> adder.sum());
+	}
+
+	private void gauge(String name, String description, LongSupplier value) {
+		metrics.addMetric(metricName(name, description), (Gauge<Long>) (config, now) -> value.getAsLong());
+	}
+
+	private void gauge(String name, String description, DoubleSupplier value) {
+		metrics.addMetric(metricName(name, description), (Gauge<Double>) (config, now) -> value.getAsDouble());
+	}
+
+	private void latency(RegistryLatencies latencies, RegistryLatencies.Operation op, String action) {
+		final String name = op.metricPrefix;
+		gauge(name + "-count", "The number of times " + action + " was timed.", () -> latencies.count(op));
+		gauge(name + "-avg", "The average time in ms spent " + action + ".", () -> latencies.meanMs(op));
+		gauge(name + "-max", "The maximum time in ms spent " + action + ".", () -> latencies.maxMs(op));
+		gauge(name + "-p50", "The median time in ms spent " + action + ".", () -> latencies.percentileMs(op, 50));
+		gauge(name + "-p99", "The 99th percentile of the time in ms spent " + action + ".", () -> latencies.percentileMs(op, 99));
+		gauge(name + "-p999", "The 99.9th percentile of the time in ms spent " + action + ".", () -> latencies.percentileMs(op, 99.9));
+	}
+
+	private MetricName metricName(String name, String description) {
+		return metrics.metricName(name, GROUP, description, tags);
+	}
+
+	void recordTransformed(boolean isKey) {
+		(isKey ? keysTransformed : valuesTransformed).increment();
+	}
+
+	void recordIgnored() {
+		recordsIgnored.increment();
+	}
+
+	void recordCacheHit() {
+		cacheHits.increment();
+	}
+
+	void recordCacheMiss() {
+		cacheMisses.increment();
+	}
+
+	void recordRetry() {
+		registryRetries.increment();
+	}
+
+	void recordRegistrationSkipped() {
+		registrationsSkipped.increment();
+	}
+
+	void recordFailure(Failure failure) {
+		failures[failure.ordinal()].increment();
+	}
+
+	Metrics metrics() {
+		return metrics;
+	}
+
+	@Override
+	public void close() {
+		metrics.close();
+	}
+}
@@ -0,0 +1,123 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong();
+
+    private CircuitBreaker breaker(int failureThreshold, long openMs) {
+        CircuitBreaker breaker = new CircuitBreaker("Test", now::get);
+        breaker.configure(failureThreshold, openMs);
+        return breaker;
+    }
+
+    private void advanceMs(long ms) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    @Test
+    public void testDisabledNeverOpens() {
+        CircuitBreaker breaker = breaker(0, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = breaker(3, 1000);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testLetsOneProbeThroughAfterOpenTime() {
+        CircuitBreaker breaker = breaker(1, 1000);
+        breaker.onFailure();
+        advanceMs(999);
+        assertFalse(breaker.tryAcquire());
+
+        advanceMs(1);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire(), "only one call probes a half-open registry");
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailedProbeReopens() {
+        CircuitBreaker breaker = breaker(5, 1000);
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure();
+        }
+        advanceMs(1000);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        advanceMs(999);
+        assertFalse(breaker.tryAcquire());
+        advanceMs(1);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testCallNotMadeLetsAnotherProbeThrough() {
+        CircuitBreaker breaker = breaker(1, 1000);
+        breaker.onFailure();
+        advanceMs(1000);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onNotCalled();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire(), "the registry was not probed yet");
+    }
+
+    @Test
+    public void testRejectedCallsDoNotOpen() {
+        CircuitBreaker breaker = breaker(1, 1000);
+        // like a registry executor whose queue is full
+        AsyncRegistryClient client = new AsyncRegistryClient(null, r -> {
+            throw new RejectedExecutionException("queue full");
+        }, breaker);
+
+        for (int i = 0; i < 3; i++) {
+            CompletionException e = assertThrows(CompletionException.class, () -> client.call(() -> 1).join());
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(), "the registry was never called");
+    }
+
+    @Test
+    public void testFirstConfigurationWins() {
+        CircuitBreaker breaker = breaker(1, 1000);
+        breaker.configure(0, 0);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+}
@@ -0,0 +1,71 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CompactIdSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        CompactIdSet ids = new CompactIdSet();
+        assertTrue(ids.add(5));
+        assertTrue(ids.add(70_000), "an id in another group of 65536");
+        assertTrue(ids.add(Integer.MAX_VALUE));
+        assertFalse(ids.add(5), "5 was already there");
+
+        assertTrue(ids.contains(5));
+        assertTrue(ids.contains(70_000));
+        assertTrue(ids.contains(Integer.MAX_VALUE));
+        assertFalse(ids.contains(6));
+        assertFalse(ids.contains(5 + 65_536), "same lower bits, different group");
+        assertEquals(3, ids.size());
+    }
+
+    @Test
+    public void testDenseGroupBecomesBitmap() {
+        CompactIdSet ids = new CompactIdSet();
+        for (int id = 0; id < 20_000; id += 2) {
+            ids.add(id);
+        }
+
+        for (int id = 0; id < 20_000; id++) {
+            assertEquals(id % 2 == 0, ids.contains(id), "id " + id);
+        }
+        assertEquals(10_000, ids.size());
+        assertEquals(Character.BYTES + (1 << 16) / Byte.SIZE, ids.containerBytes(),
+                "more than " + CompactIdSet.ARRAY_MAX + " ids in a group take a bitmap");
+    }
+
+    @Test
+    public void testSparseIdsStaySmall() {
+        CompactIdSet ids = new CompactIdSet();
+        for (int id = 0; id < 1_000; id++) {
+            ids.add(id * 1_000);
+        }
+
+        assertEquals(1_000, ids.size());
+        assertTrue(ids.containerBytes() < 4 * 1_000, "sparse ids take about two bytes each");
+    }
+
+    @Test
+    public void testToArrayListsIdsInOrder() {
+        CompactIdSet ids = new CompactIdSet();
+        for (int id = 0; id < 10_000; id += 2) {
+            ids.add(id);
+        }
+        ids.add(70_000);
+        ids.add(3);
+
+        int[] all = ids.toArray();
+        assertEquals(5_002, all.length);
+        assertEquals(0, all[0]);
+        assertEquals(2, all[1]);
+        assertEquals(3, all[2], "ids from the bitmap come in order as well");
+        assertEquals(9_998, all[all.length - 2]);
+        assertEquals(70_000, all[all.length - 1]);
+    }
+}
@@ -0,0 +1,165 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class KafkaIdMappingStoreTest {
+    private static final String TOPIC = "schema-id-mappings";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+    private static final int PAIR = 0x5eed;
+
+    private MockProducer<byte[], byte[]> producer;
+    private MockConsumer<byte[], byte[]> consumer;
+    private KafkaIdMappingStore store;
+
+    private static ConsumerRecord<byte[], byte[]> record(long offset, String subject, int sourceId, int destId) {
+        return record(offset, PAIR, subject, sourceId, destId);
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(long offset, int pair, String subject, int sourceId, int destId) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, KafkaIdMappingStore.key(pair, subject, sourceId),
+                ByteBuffer.allocate(Integer.BYTES).putInt(destId).array());
+    }
+
+    private static void awaitHistory(MockProducer<byte[], byte[]> producer, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (producer.history().size() < size) {
+            if (System.nanoTime() > deadline) {
+                fail("only " + producer.history().size() + " of " + size + " mappings were published");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        producer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC, Collections.singletonList(new PartitionInfo(TOPIC, 0, null, new Node[0], new Node[0])));
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+        store = new KafkaIdMappingStore(TOPIC, PAIR, producer, consumer, 10_000L);
+    }
+
+    @AfterEach
+    public void teardown() {
+        store.close();
+    }
+
+    @Test
+    public void testStartReplaysTopic() {
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 3L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(0, "orders-value", 1, 101));
+            consumer.addRecord(record(1, "payments-value", 1, 102));
+            // a later record for the same key wins, like after compaction
+            consumer.addRecord(record(2, "orders-value", 1, 103));
+        });
+
+        Map<String, Integer> seen = new ConcurrentHashMap<>();
+        store.start((subject, sourceId, destId) -> seen.put(subject + "/" + sourceId, destId));
+
+        assertEquals(2, seen.size(), "start() returns once the topic has been read to its end");
+        assertEquals(103, seen.get("orders-value/1"));
+        assertEquals(102, seen.get("payments-value/1"));
+    }
+
+    @Test
+    public void testStartSkipsOtherRegistryPairs() throws InterruptedException {
+        int otherPair = 0xfeed;
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 3L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record(0, PAIR, "orders-value", 1, 101));
+            // the same subject and source id, learned by a transform copying between two other registries
+            consumer.addRecord(record(1, otherPair, "orders-value", 1, 201));
+            consumer.addRecord(record(2, otherPair, "payments-value", 2, 202));
+        });
+
+        Map<String, Integer> seen = new ConcurrentHashMap<>();
+        store.start((subject, sourceId, destId) -> seen.put(subject + "/" + sourceId, destId));
+
+        assertEquals(Collections.singletonMap("orders-value/1", 101), seen, "only this pair's mappings are replayed");
+
+        store.put("orders-value", 1, 101);
+        awaitHistory(producer, 1);
+        assertNotEquals(ByteBuffer.wrap(KafkaIdMappingStore.key(otherPair, "orders-value", 1)),
+                ByteBuffer.wrap(producer.history().get(0).key()), "compaction keeps both pairs' mappings of the same subject and id");
+    }
+
+    @Test
+    public void testPutPublishesCompactableRecord() throws InterruptedException {
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 0L));
+        store.start((subject, sourceId, destId) -> { });
+
+        store.put("orders-value", 7, 42);
+
+        awaitHistory(producer, 1);
+        ProducerRecord<byte[], byte[]> published = producer.history().get(0);
+        assertEquals(TOPIC, published.topic());
+        assertArrayEquals(KafkaIdMappingStore.key(PAIR, "orders-value", 7), published.key(),
+                "the key identifies the (subject, source id) pair so compaction keeps one record per pair");
+        assertEquals(42, ByteBuffer.wrap(published.value()).getInt());
+    }
+
+    @Test
+    public void testPutDoesNotWaitForProducer() throws InterruptedException {
+        // like a producer waiting out max.block.ms for the topic's metadata
+        CountDownLatch reachable = new CountDownLatch(1);
+        MockProducer<byte[], byte[]> blocking = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer()) {
+            @Override
+            public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+                try {
+                    reachable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.send(record, callback);
+            }
+        };
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 0L));
+        KafkaIdMappingStore blockingStore = new KafkaIdMappingStore(TOPIC, PAIR, blocking, consumer, 10_000L);
+        try {
+            blockingStore.start((subject, sourceId, destId) -> { });
+
+            long start = System.nanoTime();
+            for (int i = 0; i < KafkaIdMappingStore.PENDING_CAPACITY + 10; i++) {
+                blockingStore.put("orders-value", i, i + 1000);
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "put() returned while the producer was blocked");
+
+            reachable.countDown();
+            awaitHistory(blocking, 2);
+            assertArrayEquals(KafkaIdMappingStore.key(PAIR, "orders-value", 0), blocking.history().get(0).key(),
+                    "mappings are published in the order they were learned");
+        } finally {
+            reachable.countDown();
+            blockingStore.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import cricket.jmoore.kafka.connect.transforms.TransferMetrics.Failure;
+
+public class NegativeCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    private void advanceMillis(long ms) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        NegativeCache cache = new NegativeCache(1000, 10, now::get);
+        cache.put(1L, Failure.SCHEMA_NOT_FOUND);
+
+        advanceMillis(999);
+        assertEquals(Failure.SCHEMA_NOT_FOUND, cache.get(1L));
+        assertNull(cache.get(2L));
+
+        advanceMillis(1);
+        assertNull(cache.get(1L), "the id is looked up again once the ttl has passed");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCapacityEvictsSoonestToExpire() {
+        NegativeCache cache = new NegativeCache(1000, 2, now::get);
+        cache.put(1L, Failure.SCHEMA_NOT_FOUND);
+        advanceMillis(10);
+        cache.put(2L, Failure.DESTINATION_REGISTER);
+        advanceMillis(10);
+        cache.put(3L, Failure.SCHEMA_NOT_FOUND);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(1L), "the oldest entry made room");
+        assertEquals(Failure.DESTINATION_REGISTER, cache.get(2L));
+        assertEquals(Failure.SCHEMA_NOT_FOUND, cache.get(3L));
+    }
+
+    @Test
+    public void testDisabled() {
+        NegativeCache cache = new NegativeCache(0, 10, now::get);
+        assertFalse(cache.isEnabled());
+        cache.put(1L, Failure.SCHEMA_NOT_FOUND);
+        assertNull(cache.get(1L));
+    }
+}
@@ -0,0 +1,167 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+public class RegistryEndpointsTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SchemaRegistryClient firstClient = new MockSchemaRegistryClient();
+    private final SchemaRegistryClient secondClient = new MockSchemaRegistryClient();
+    private final RegistryEndpoints.Endpoint first = new RegistryEndpoints.Endpoint("http://first", firstClient, breaker("first"));
+    private final RegistryEndpoints.Endpoint second = new RegistryEndpoints.Endpoint("http://second", secondClient, breaker("second"));
+    // the pending read of each client
+    private final Map<SchemaRegistryClient, CompletableFuture<String>> reads = new ConcurrentHashMap<>();
+
+    private static CircuitBreaker breaker(String name) {
+        CircuitBreaker breaker = new CircuitBreaker(name);
+        breaker.configure(1, 60_000);
+        return breaker;
+    }
+
+    @AfterEach
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    private RegistryEndpoints endpoints(long hedgeDelayMs) {
+        return new RegistryEndpoints(Arrays.asList(first, second), () -> hedgeDelayMs, () -> scheduler);
+    }
+
+    private CompletableFuture<String> read(RegistryEndpoints endpoints) {
+        return endpoints.read(endpoint -> reads.computeIfAbsent(endpoint.client(), c -> new CompletableFuture<>()));
+    }
+
+    private CompletableFuture<String> awaitRead(SchemaRegistryClient client) throws InterruptedException {
+        for (int i = 0; i < 500 && !reads.containsKey(client); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(reads.containsKey(client), "the read was sent");
+        return reads.get(client);
+    }
+
+    @Test
+    public void testPrefersFewestOutstandingThenLowestLatency() {
+        RegistryEndpoints endpoints = endpoints(0);
+        first.record(TimeUnit.MILLISECONDS.toNanos(5));
+        second.record(TimeUnit.MILLISECONDS.toNanos(50));
+        assertSame(first, endpoints.select(null));
+        assertSame(second, endpoints.select(first));
+
+        read(endpoints);
+        assertEquals(1, first.outstanding());
+        assertSame(second, endpoints.select(null), "the node with nothing outstanding wins");
+
+        reads.get(firstClient).complete("schema");
+        assertEquals(0, first.outstanding());
+        assertSame(first, endpoints.select(null));
+    }
+
+    @Test
+    public void testTriesUnmeasuredNodes() {
+        RegistryEndpoints endpoints = endpoints(0);
+        first.record(TimeUnit.MILLISECONDS.toNanos(1));
+        assertSame(second, endpoints.select(null));
+    }
+
+    @Test
+    public void testTransientFailuresWeighOnLatency() {
+        RegistryEndpoints endpoints = endpoints(0);
+        second.record(TimeUnit.MILLISECONDS.toNanos(100));
+        CompletableFuture<String> result = read(endpoints);
+        reads.remove(firstClient).completeExceptionally(new IOException("connection reset"));
+
+        assertThrows(CompletionException.class, result::join);
+        assertSame(second, endpoints.select(null));
+    }
+
+    @Test
+    public void testEachNodeHasItsOwnBreaker() {
+        RegistryEndpoints endpoints = endpoints(0);
+        AsyncRegistryClient client = new AsyncRegistryClient(firstClient, Runnable::run, breaker("registry"));
+        first.record(TimeUnit.MILLISECONDS.toNanos(1));
+        second.record(TimeUnit.SECONDS.toNanos(10));
+        IOException error = new IOException("connection reset");
+
+        CompletableFuture<String> failed = endpoints.read(endpoint -> client.call(() -> {
+            if (endpoint == first) {
+                throw error;
+            }
+            return "schema";
+        }, endpoint.breaker()));
+        assertThrows(CompletionException.class, failed::join);
+        assertEquals(CircuitBreaker.State.OPEN, first.breaker().state());
+        assertEquals(CircuitBreaker.State.CLOSED, second.breaker().state());
+        assertEquals(CircuitBreaker.State.CLOSED, endpoints.state(), "the registry can still be read from");
+
+        assertSame(second, endpoints.select(null), "the node whose breaker is open is left out, however fast it was");
+    }
+
+    @Test
+    public void testReadsFromRefusingNodesWhenAllRefuse() {
+        RegistryEndpoints endpoints = endpoints(0);
+        first.breaker().onFailure();
+        second.breaker().onFailure();
+        second.record(TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertSame(first, endpoints.select(null), "with every breaker open, nodes are chosen as usual");
+        assertEquals(CircuitBreaker.State.OPEN, endpoints.state());
+    }
+
+    @Test
+    public void testHedgesSlowReadToAnotherNode() throws InterruptedException {
+        RegistryEndpoints endpoints = endpoints(10);
+        CompletableFuture<String> result = read(endpoints);
+
+        awaitRead(secondClient).complete("from second");
+        assertEquals("from second", result.join());
+        assertEquals(1, endpoints.hedges());
+        reads.get(firstClient).complete("from first");
+        assertEquals(0, first.outstanding());
+    }
+
+    @Test
+    public void testHedgedReadFailsOnceBothNodesFailed() throws InterruptedException {
+        RegistryEndpoints endpoints = endpoints(10);
+        CompletableFuture<String> result = read(endpoints);
+        IOException error = new IOException("connection reset");
+
+        awaitRead(secondClient).completeExceptionally(error);
+        assertFalse(result.isDone(), "the first node may still answer");
+        reads.get(firstClient).completeExceptionally(error);
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertSame(error, e.getCause());
+    }
+
+    @Test
+    public void testDefinitiveAnswerIsNotHedged() {
+        RegistryEndpoints endpoints = endpoints(10_000);
+        CompletableFuture<String> result = read(endpoints);
+        RestClientException notFound = new RestClientException("Schema not found", 404, 40403);
+
+        reads.get(firstClient).completeExceptionally(notFound);
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertSame(notFound, e.getCause());
+        assertEquals(0, endpoints.hedges());
+    }
+}
@@ -0,0 +1,92 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+
+import cricket.jmoore.kafka.connect.transforms.RegistryLatencies.Operation;
+
+public class RegistryLatenciesTest {
+    // HdrHistogram keeps 3 significant digits
+    private static final double PRECISION_MS = 0.1;
+
+    private final RegistryLatencies latencies = new RegistryLatencies();
+
+    private void record(Operation op, long millis, int times) {
+        for (int i = 0; i < times; i++) {
+            latencies.record(op, TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    @Test
+    public void testOperationsAreRecordedSeparately() {
+        record(Operation.SOURCE_FETCH, 1, 99);
+        record(Operation.SOURCE_FETCH, 100, 1);
+        record(Operation.DESTINATION_REGISTER, 5, 1);
+
+        assertEquals(100, latencies.count(Operation.SOURCE_FETCH));
+        assertEquals(1, latencies.percentileMs(Operation.SOURCE_FETCH, 50), PRECISION_MS);
+        assertEquals(100, latencies.percentileMs(Operation.SOURCE_FETCH, 99.9), PRECISION_MS);
+        assertEquals(100, latencies.maxMs(Operation.SOURCE_FETCH), PRECISION_MS);
+
+        assertEquals(1, latencies.count(Operation.DESTINATION_REGISTER));
+        assertEquals(5, latencies.maxMs(Operation.DESTINATION_REGISTER), PRECISION_MS);
+        assertEquals(5, latencies.meanMs(Operation.DESTINATION_REGISTER), PRECISION_MS);
+    }
+
+    @Test
+    public void testLogLineCoversOnlyTheLastInterval() {
+        record(Operation.SOURCE_FETCH, 2, 3);
+        String line = latencies.logLine(Operation.SOURCE_FETCH);
+        assertTrue(line.contains("count=3"), line);
+        assertNull(latencies.logLine(Operation.SOURCE_FETCH), "nothing was recorded since the last line");
+        assertNull(latencies.logLine(Operation.DESTINATION_REGISTER), "nothing was ever registered");
+
+        record(Operation.SOURCE_FETCH, 2, 1);
+        assertTrue(latencies.logLine(Operation.SOURCE_FETCH).contains("count=1"));
+        assertEquals(4, latencies.count(Operation.SOURCE_FETCH), "the metrics still cover every round-trip");
+    }
+
+    @Test
+    public void testPublishedAsMetrics() {
+        RegistryPairContext context = RegistryPairContext.create(
+                Collections.singletonList("http://source:8081"), Collections.emptyMap(),
+                Collections.singletonList("http://dest:8081"), Collections.emptyMap(), 10, 0,
+                (urls, schemaCapacity, props) -> new MockSchemaRegistryClient(RegistryPairContext.schemaProviders()),
+                SubjectNames.topicNames(10).strategies(), null);
+        TransferMetrics metrics = new TransferMetrics(context);
+        try {
+            context.latencies.record(Operation.SOURCE_FETCH, TimeUnit.MILLISECONDS.toNanos(10));
+            context.latencies.record(Operation.SOURCE_FETCH, TimeUnit.MILLISECONDS.toNanos(30));
+            context.latencies.record(Operation.DESTINATION_REGISTER, TimeUnit.MILLISECONDS.toNanos(7));
+
+            assertEquals(2, metric(metrics, "source-fetch-latency-count"));
+            assertEquals(20, metric(metrics, "source-fetch-latency-avg"), PRECISION_MS);
+            assertEquals(30, metric(metrics, "source-fetch-latency-max"), PRECISION_MS);
+            assertEquals(10, metric(metrics, "source-fetch-latency-p50"), PRECISION_MS);
+            assertEquals(30, metric(metrics, "source-fetch-latency-p99"), PRECISION_MS);
+            assertEquals(30, metric(metrics, "source-fetch-latency-p999"), PRECISION_MS);
+            assertEquals(1, metric(metrics, "destination-register-latency-count"));
+            assertEquals(7, metric(metrics, "destination-register-latency-p50"), PRECISION_MS);
+        } finally {
+            metrics.close();
+            context.release();
+        }
+    }
+
+    private static double metric(TransferMetrics metrics, String name) {
+        return metrics.metrics().metrics().entrySet().stream()
+                .filter(e -> e.getKey().name().equals(name))
+                .mapToDouble(e -> ((Number) e.getValue().metricValue()).doubleValue())
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no metric " + name));
+    }
+}
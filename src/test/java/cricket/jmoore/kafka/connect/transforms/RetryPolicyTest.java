@@ -0,0 +1,169 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+public class RetryPolicyTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+
+    @AfterEach
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<Integer> failingTimes(int failures, Exception error) {
+        final CompletableFuture<Integer> call = new CompletableFuture<>();
+        if (attempts.incrementAndGet() <= failures) {
+            call.completeExceptionally(error);
+        } else {
+            call.complete(42);
+        }
+        return call;
+    }
+
+    private CompletableFuture<Integer> call(RetryPolicy policy, int failures, Exception error) {
+        return policy.call(() -> failingTimes(failures, error), policy.deadlineNanos(), () -> scheduler, null, retries::incrementAndGet);
+    }
+
+    @Test
+    public void testRetriesTransientFailures() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, 0);
+
+        assertEquals(42, call(policy, 2, new RestClientException("unavailable", 503, 50003)).join());
+        assertEquals(3, attempts.get());
+        assertEquals(2, retries.get());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, 0);
+        IOException error = new IOException("connection reset");
+
+        CompletionException e = assertThrows(CompletionException.class, () -> call(policy, 5, error).join());
+        assertSame(error, e.getCause());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testAnswersAboutTheSchemaAreNotRetried() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, 0);
+
+        assertThrows(CompletionException.class, () -> call(policy, 5, new RestClientException("Schema not found", 404, 40403)).join());
+        assertThrows(CompletionException.class, () -> call(policy, 5, new RestClientException("Incompatible", 409, 409)).join());
+        assertEquals(2, attempts.get(), "each call was made once");
+        assertEquals(0, retries.get());
+    }
+
+    @Test
+    public void testDeadlineStopsRetries() {
+        RetryPolicy policy = new RetryPolicy(10, 1_000, 1_000, 1);
+
+        // any backoff that is not 0 ms ends past the deadline; retry until one is not
+        assertThrows(CompletionException.class, () -> call(policy, 100, new IOException("timeout")).join());
+        assertTrue(attempts.get() < 10, "the deadline ended the retries before the attempts ran out");
+    }
+
+    @Test
+    public void testRetriesWithoutExecutorStayOnTheCallingThread() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, 0);
+        List<Thread> threads = new ArrayList<>();
+
+        CompletableFuture<Integer> call = policy.call(() -> {
+            threads.add(Thread.currentThread());
+            return failingTimes(2, new IOException("connection reset"));
+        }, policy.deadlineNanos(), () -> scheduler, null, retries::incrementAndGet);
+
+        assertTrue(call.isDone(), "the retries were made before the call returned");
+        assertEquals(42, call.join());
+        assertEquals(3, threads.size());
+        threads.forEach(t -> assertSame(Thread.currentThread(), t));
+    }
+
+    @Test
+    public void testConcurrentRetriesRunInParallel() throws Exception {
+        RetryPolicy policy = new RetryPolicy(2, 1, 1, 0);
+        CountDownLatch retrying = new CountDownLatch(2);
+
+        List<CompletableFuture<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            AtomicInteger callAttempts = new AtomicInteger();
+            calls.add(policy.call(() -> {
+                CompletableFuture<Integer> call = new CompletableFuture<>();
+                if (callAttempts.incrementAndGet() == 1) {
+                    call.completeExceptionally(new IOException("connection reset"));
+                    return call;
+                }
+                // block like a registry call made on the thread the retry runs on, until the other retry runs too
+                retrying.countDown();
+                try {
+                    call.complete(retrying.await(5, TimeUnit.SECONDS) ? 42 : -1);
+                } catch (InterruptedException e) {
+                    call.completeExceptionally(e);
+                }
+                return call;
+            }, policy.deadlineNanos(), () -> scheduler, executor, retries::incrementAndGet));
+        }
+
+        for (CompletableFuture<Integer> call : calls) {
+            assertEquals(42, call.get(10, TimeUnit.SECONDS), "both retries ran at once");
+        }
+        assertEquals(2, retries.get());
+    }
+
+    @Test
+    public void testDeadlineCutsOffAnAttempt() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, 50);
+
+        // the registry never answers
+        CompletableFuture<Integer> call = policy.call(CompletableFuture::new, policy.deadlineNanos(), () -> scheduler, executor,
+                retries::incrementAndGet);
+
+        CompletionException e = assertThrows(CompletionException.class, call::join);
+        assertTrue(e.getCause() instanceof TimeoutException, "cause " + e.getCause());
+        assertEquals(0, retries.get());
+    }
+
+    @Test
+    public void testClassification() {
+        assertTrue(RetryPolicy.isRetriable(new IOException()));
+        assertTrue(RetryPolicy.isRetriable(new RestClientException("overloaded", 429, 429)));
+        assertTrue(RetryPolicy.isRetriable(new CompletionException(new RestClientException("store error", 500, 50001))));
+        assertFalse(RetryPolicy.isRetriable(new RestClientException("unauthorized", 401, 401)));
+        assertFalse(RetryPolicy.isRetriable(new IllegalStateException()));
+    }
+
+    @Test
+    public void testBackoffIsCapped() {
+        RetryPolicy policy = new RetryPolicy(100, 100, 1_000, 0);
+        for (int attempt = 1; attempt < 100; attempt++) {
+            long backoff = policy.backoffMs(attempt);
+            assertTrue(backoff >= 0 && backoff <= Math.min(1_000, 100L << Math.min(attempt - 1, 30)), "backoff " + backoff);
+        }
+    }
+}
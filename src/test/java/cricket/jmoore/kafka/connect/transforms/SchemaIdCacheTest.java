@@ -0,0 +1,88 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class SchemaIdCacheTest {
+
+    @Test
+    public void testMissReturnsNoId() {
+        SchemaIdCache cache = new SchemaIdCache(10);
+        assertEquals(SchemaIdCache.NO_ID, cache.get(1));
+        assertEquals(SchemaIdCache.NO_ID, cache.get(-1), "negative ids are never cached");
+    }
+
+    @Test
+    public void testPutThenGet() {
+        SchemaIdCache cache = new SchemaIdCache(10);
+        cache.put(0, 100);
+        cache.put(1, 101);
+        assertEquals(100, cache.get(0));
+        assertEquals(101, cache.get(1));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testPutReplacesExistingId() {
+        SchemaIdCache cache = new SchemaIdCache(10);
+        cache.put(0, 100);
+        long modifications = cache.modifications();
+        cache.put(0, 100);
+        assertEquals(modifications, cache.modifications(), "putting the same id again changes nothing");
+
+        cache.put(0, 200);
+        assertEquals(200, cache.get(0), "the later mapping wins");
+        assertEquals(1, cache.size());
+        assertEquals(modifications + 1, cache.modifications());
+    }
+
+    @Test
+    public void testNegativeIdRejected() {
+        SchemaIdCache cache = new SchemaIdCache(10);
+        assertThrows(IllegalArgumentException.class, () -> cache.put(-5, 1));
+    }
+
+    @Test
+    public void testCapacityIsBounded() {
+        SchemaIdCache cache = new SchemaIdCache(8);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i + 1000);
+            assertTrue(cache.size() <= 8, "cache never exceeds its capacity");
+        }
+        assertEquals(8, cache.size());
+        assertEquals(992, cache.evictions());
+        // the most recent insert always survives
+        assertEquals(1999, cache.get(999));
+    }
+
+    @Test
+    public void testReferencedEntriesSurviveEviction() {
+        SchemaIdCache cache = new SchemaIdCache(4);
+        for (int i = 0; i < 4; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 4; i < 100; i++) {
+            // keep id 0 hot while the rest of the cache churns
+            assertEquals(0, cache.get(0));
+            cache.put(i, i);
+        }
+        assertEquals(0, cache.get(0), "a hot entry is given a second chance by the clock");
+    }
+
+    @Test
+    public void testCompositeKeysAreDistinct() {
+        SchemaIdCache cache = new SchemaIdCache(10);
+        cache.put(SchemaIdCache.key(0, false, 42), 1);
+        cache.put(SchemaIdCache.key(1, false, 42), 2);
+        cache.put(SchemaIdCache.key(0, true, 42), 3);
+        assertEquals(1, cache.get(SchemaIdCache.key(0, false, 42)));
+        assertEquals(2, cache.get(SchemaIdCache.key(1, false, 42)));
+        assertEquals(3, cache.get(SchemaIdCache.key(0, true, 42)));
+        assertEquals(SchemaIdCache.NO_ID, cache.get(SchemaIdCache.key(1, true, 42)));
+        assertThrows(IllegalArgumentException.class, () -> SchemaIdCache.key(-1, false, 42));
+    }
+}
@@ -0,0 +1,123 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
+import io.confluent.kafka.schemaregistry.client.rest.entities.SchemaReference;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import io.confluent.kafka.schemaregistry.protobuf.ProtobufSchema;
+
+public class SchemaReferenceResolverTest {
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> registrations = new ConcurrentHashMap<>();
+
+    private final MockSchemaRegistryClient source = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders()) {
+        @Override
+        public SchemaMetadata getSchemaMetadata(String subject, int version) throws IOException, RestClientException {
+            fetches.computeIfAbsent(subject, s -> new AtomicInteger()).incrementAndGet();
+            return super.getSchemaMetadata(subject, version);
+        }
+    };
+    private final MockSchemaRegistryClient dest = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders()) {
+        @Override
+        public int register(String subject, ParsedSchema schema) throws IOException, RestClientException {
+            registrations.computeIfAbsent(subject, s -> new AtomicInteger()).incrementAndGet();
+            return super.register(subject, schema);
+        }
+    };
+
+    private SchemaReferenceResolver resolver;
+
+    @BeforeEach
+    public void setup() {
+        resolver = new SchemaReferenceResolver(new AsyncRegistryClient(source, Runnable::run, new CircuitBreaker("Source")),
+                new AsyncRegistryClient(dest, Runnable::run, new CircuitBreaker("Destination")));
+    }
+
+    private ParsedSchema parse(String body, SchemaReference... references) {
+        return source.parseSchema(ProtobufSchema.TYPE, "syntax = \"proto3\";\n" + body, Arrays.asList(references)).get();
+    }
+
+    /**
+     * Registers {@code body} as the second version of {@code file} in the source registry, so that its version in
+     * the destination registry, where it is the first, tells the two apart.
+     */
+    private SchemaReference register(String file, String body, SchemaReference... references)
+            throws IOException, RestClientException {
+        source.register(file, parse("message Placeholder { bool unused = 1; }"));
+        ParsedSchema schema = parse(body, references);
+        source.register(file, schema);
+        int version = source.getVersion(file, schema);
+        assertEquals(2, version);
+        return new SchemaReference(file, file, version);
+    }
+
+    private List<SchemaReference> destReferences(String file) throws IOException, RestClientException {
+        return dest.getLatestSchemaMetadata(file).getReferences();
+    }
+
+    @Test
+    public void testNestedReferencesAreCopiedLeavesFirst() throws Exception {
+        SchemaReference c = register("c.proto", "message C { string id = 1; }");
+        SchemaReference b = register("b.proto", "import \"c.proto\";\nmessage B { C c = 1; }", c);
+        ParsedSchema a = parse("import \"b.proto\";\nmessage A { B b = 1; }", b);
+
+        ParsedSchema destA = resolver.forDestination(a).get();
+
+        assertEquals(Collections.singletonList(new SchemaReference("b.proto", "b.proto", 1)), destA.references(),
+                "the schema refers to the copy of its reference");
+        assertEquals(Collections.singletonList(new SchemaReference("c.proto", "c.proto", 1)), destReferences("b.proto"),
+                "the copied reference refers to the copy of its own reference");
+        assertEquals(1, registrations.get("b.proto").get());
+        assertEquals(1, registrations.get("c.proto").get());
+    }
+
+    @Test
+    public void testSharedReferenceIsCopiedOnce() throws Exception {
+        SchemaReference shared = register("shared.proto", "message Shared { string id = 1; }");
+        SchemaReference left = register("left.proto", "import \"shared.proto\";\nmessage Left { Shared shared = 1; }", shared);
+        SchemaReference right = register("right.proto", "import \"shared.proto\";\nmessage Right { Shared shared = 1; }", shared);
+        ParsedSchema top = parse("import \"left.proto\";\nimport \"right.proto\";\nmessage Top { Left left = 1; Right right = 2; }",
+                left, right);
+        ParsedSchema other = parse("import \"shared.proto\";\nmessage Other { Shared shared = 1; }", shared);
+        // parsing may have looked the references up as well
+        fetches.clear();
+
+        ParsedSchema destTop = resolver.forDestination(top).get();
+
+        assertEquals(Arrays.asList(new SchemaReference("left.proto", "left.proto", 1), new SchemaReference("right.proto", "right.proto", 1)),
+                destTop.references());
+        SchemaReference destShared = new SchemaReference("shared.proto", "shared.proto", 1);
+        assertEquals(Collections.singletonList(destShared), destReferences("left.proto"));
+        assertEquals(Collections.singletonList(destShared), destReferences("right.proto"));
+        assertEquals(1, fetches.get("shared.proto").get(), "the shared schema was fetched once");
+        assertEquals(1, registrations.get("shared.proto").get(), "the shared schema was registered once");
+
+        // another schema referring to it later reuses the copy as well
+        resolver.forDestination(other).get();
+        assertEquals(1, fetches.get("shared.proto").get());
+        assertEquals(1, registrations.get("shared.proto").get());
+    }
+
+    @Test
+    public void testSchemaWithoutReferencesIsReturnedAsIs() throws ExecutionException, InterruptedException {
+        ParsedSchema schema = parse("message Plain { string id = 1; }");
+        assertEquals(schema, resolver.forDestination(schema).get());
+        assertEquals(Collections.emptyMap(), registrations);
+    }
+}
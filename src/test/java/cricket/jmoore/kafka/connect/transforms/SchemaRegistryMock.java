@@ -5,8 +5,12 @@ package cricket.jmoore.kafka.connect.transforms;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -17,12 +21,14 @@ import org.junit.jupiter.api.extension.ExtensionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.confluent.kafka.schemaregistry.ParsedSchema;
 import io.confluent.kafka.schemaregistry.avro.AvroSchema;
 import io.confluent.kafka.schemaregistry.client.CachedSchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
 import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
 import io.confluent.kafka.schemaregistry.client.rest.entities.Config;
+import io.confluent.kafka.schemaregistry.client.rest.entities.ErrorMessage;
 import io.confluent.kafka.schemaregistry.client.rest.entities.SchemaString;
 import io.confluent.kafka.schemaregistry.client.rest.entities.requests.RegisterSchemaRequest;
 import io.confluent.kafka.schemaregistry.client.rest.entities.requests.RegisterSchemaResponse;
@@ -30,6 +36,7 @@ import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientExcept
 import io.confluent.kafka.serializers.subject.TopicNameStrategy;
 import io.confluent.kafka.serializers.subject.strategy.SubjectNameStrategy;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.MappingBuilder;
 import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
@@ -38,7 +45,9 @@ import com.github.tomakehurst.wiremock.common.ConsoleNotifier;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformerV2;
 import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
 import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.matching.RequestPatternBuilder;
 import com.github.tomakehurst.wiremock.stubbing.ServeEvent;
 import com.github.tomakehurst.wiremock.stubbing.StubMapping;
 import com.google.common.base.Splitter;
@@ -57,6 +66,8 @@ import com.google.common.collect.Iterables;
  * `@Tag(Constants.USE_BASIC_AUTH_SOURCE_TAG)` and/or `@Tag(Constants.USE_BASIC_AUTH_DESTR_TAG)` annotation after
  * @Test annotation of any basic HTTP authentication dependent test code.</p>
  *
+ * <p>{@link #startNode(int)} adds nodes in front of the registry, for tests spreading requests over several URLs.</p>
+ *
  * <p>If you use the TestToplogy of the fluent Kafka Streams test, you don't have to interact with this class at
  * all.</p>
  *
@@ -101,19 +112,27 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         DESTINATION;
     }
 
+    private static final String SUBJECTS_PATTERN = "/subjects";
+    private static final String SUBJECT_PATTERN = "/subjects/[^/]+";
     private static final String SCHEMA_REGISTRATION_PATTERN = "/subjects/[^/]+/versions";
     private static final String SCHEMA_BY_ID_PATTERN = "/schemas/ids/";
     private static final String CONFIG_PATTERN = "/config";
+    private static final String MODE_PATTERN = "/mode/[^/]+";
     private static final int IDENTITY_MAP_CAPACITY = 1000;
+    private static final int SCHEMA_NOT_FOUND_ERROR_CODE = 40403;
+    private final ListSubjectsHandler listSubjectsHandler = new ListSubjectsHandler();
     private final ListVersionsHandler listVersionsHandler = new ListVersionsHandler();
     private final GetVersionHandler getVersionHandler = new GetVersionHandler();
+    private final LookupVersionHandler lookupVersionHandler = new LookupVersionHandler();
     private final AutoRegistrationHandler autoRegistrationHandler = new AutoRegistrationHandler();
     private final GetConfigHandler getConfigHandler = new GetConfigHandler();
+    private final ModeHandler modeHandler = new ModeHandler();
     private final WireMockServer mockSchemaRegistry = new WireMockServer(
             WireMockConfiguration.wireMockConfig().notifier(new ConsoleNotifier(true)).dynamicPort().extensions(
-                    this.autoRegistrationHandler, this.listVersionsHandler, this.getVersionHandler,
-                    this.getConfigHandler));
-    private final SchemaRegistryClient schemaRegistryClient = new MockSchemaRegistryClient();
+                    this.autoRegistrationHandler, this.listSubjectsHandler, this.listVersionsHandler,
+                    this.getVersionHandler, this.lookupVersionHandler, this.getConfigHandler, this.modeHandler));
+    private final SchemaRegistryClient schemaRegistryClient = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders());
+    private final List<WireMockServer> nodes = new ArrayList<>();
     private final String basicAuthTag;
     private final String basicAuthCredentials;
     private Function<MappingBuilder, StubMapping> stubFor;
@@ -132,6 +151,8 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
 
     @Override
     public void afterEach(final ExtensionContext context) {
+        this.nodes.forEach(WireMockServer::stop);
+        this.nodes.clear();
         this.mockSchemaRegistry.stop();
     }
 
@@ -146,12 +167,18 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         }
 
         this.mockSchemaRegistry.start();
+        this.stubFor.apply(WireMock.get(WireMock.urlPathEqualTo(SUBJECTS_PATTERN))
+                .willReturn(WireMock.aResponse().withTransformers(this.listSubjectsHandler.getName())));
         this.stubFor.apply(WireMock.get(WireMock.urlPathMatching(SCHEMA_REGISTRATION_PATTERN))
                 .willReturn(WireMock.aResponse().withTransformers(this.listVersionsHandler.getName())));
         this.stubFor.apply(WireMock.post(WireMock.urlPathMatching(SCHEMA_REGISTRATION_PATTERN))
                 .willReturn(WireMock.aResponse().withTransformers(this.autoRegistrationHandler.getName())));
         this.stubFor.apply(WireMock.get(WireMock.urlPathMatching(SCHEMA_REGISTRATION_PATTERN + "/(?:latest|\\d+)"))
                 .willReturn(WireMock.aResponse().withTransformers(this.getVersionHandler.getName())));
+        this.stubFor.apply(WireMock.post(WireMock.urlPathMatching(SUBJECT_PATTERN))
+                .willReturn(WireMock.aResponse().withTransformers(this.lookupVersionHandler.getName())));
+        this.stubFor.apply(WireMock.any(WireMock.urlPathMatching(MODE_PATTERN))
+                .willReturn(WireMock.aResponse().withTransformers(this.modeHandler.getName())));
         this.stubFor.apply(WireMock.get(WireMock.urlPathMatching(CONFIG_PATTERN))
                 .willReturn(WireMock.aResponse().withTransformers(this.getConfigHandler.getName())));
         this.stubFor.apply(WireMock.get(WireMock.urlPathMatching(SCHEMA_BY_ID_PATTERN + "\\d+"))
@@ -163,15 +190,32 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
     }
 
     public int registerSchema(final String topic, boolean isKey, final Schema schema, SubjectNameStrategy strategy) {
-        return this.register(strategy.subjectName(topic, isKey, new AvroSchema(schema)), schema);
+        return this.register(strategy.subjectName(topic, isKey, new AvroSchema(schema)), new AvroSchema(schema));
+    }
+
+    public int registerSchema(final String topic, boolean isKey, final ParsedSchema schema) {
+        return this.register(new TopicNameStrategy().subjectName(topic, isKey, schema), schema);
     }
 
-    private int register(final String subject, final Schema schema) {
+    public int registerSchema(final String subject, final ParsedSchema schema) {
+        return this.register(subject, schema);
+    }
+
+    private int register(final String subject, final ParsedSchema schema) {
+        return this.register(subject, schema, null, null);
+    }
+
+    private int register(final String subject, final ParsedSchema schema, Integer version, Integer importId) {
         try {
-            final int id = this.schemaRegistryClient.register(subject, new AvroSchema(schema));
+            final int id = importId == null || importId < 0
+                    ? this.schemaRegistryClient.register(subject, schema)
+                    : this.schemaRegistryClient.register(subject, schema, version == null ? 0 : version, importId);
+            final SchemaString schemaString = new SchemaString(schema.canonicalString());
+            schemaString.setSchemaType(schema.schemaType());
+            schemaString.setReferences(schema.references());
             // client upgrades appends ?fetchMaxId=false and then &subject= to the url
             this.stubFor.apply(WireMock.get(WireMock.urlMatching(String.format("%s%d[^0-9]*", SCHEMA_BY_ID_PATTERN, id)))
-                    .willReturn(ResponseDefinitionBuilder.okForJson(new SchemaString(schema.toString()))));
+                    .willReturn(ResponseDefinitionBuilder.okForJson(schemaString)));
             log.debug("Registered schema {}", id);
             return id;
         } catch (final IOException | RestClientException e) {
@@ -179,6 +223,15 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         }
     }
 
+    private Collection<String> listSubjects() {
+        log.debug("Listing all subjects");
+        try {
+            return this.schemaRegistryClient.getAllSubjects();
+        } catch (IOException | RestClientException e) {
+            throw new IllegalStateException("Internal error in mock schema registry client", e);
+        }
+    }
+
     private List<Integer> listVersions(String subject) {
         log.debug("Listing all versions for subject {}", subject);
         try {
@@ -204,6 +257,45 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         }
     }
 
+    /**
+     * @return null when the schema is not in the subject
+     */
+    private io.confluent.kafka.schemaregistry.client.rest.entities.Schema lookupVersion(String subject, RegisterSchemaRequest request) {
+        log.debug("Looking up schema in subject {}", subject);
+        try {
+            final ParsedSchema schema = parse(request);
+            return new io.confluent.kafka.schemaregistry.client.rest.entities.Schema(subject,
+                    this.schemaRegistryClient.getVersion(subject, schema), this.schemaRegistryClient.getId(subject, schema),
+                    schema.schemaType(), schema.references(), schema.canonicalString());
+        } catch (RestClientException e) {
+            if (e.getStatus() == HTTP_NOT_FOUND) {
+                return null;
+            }
+            throw new IllegalStateException("Internal error in mock schema registry client", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Internal error in mock schema registry client", e);
+        }
+    }
+
+    private ParsedSchema parse(RegisterSchemaRequest request) {
+        final String schemaType = request.getSchemaType() == null ? AvroSchema.TYPE : request.getSchemaType();
+        return this.schemaRegistryClient.parseSchema(schemaType, request.getSchema(), request.getReferences())
+                .orElseThrow(() -> new IllegalArgumentException("Cannot parse " + schemaType + " schema"));
+    }
+
+    private String mode(String subject, String newMode) {
+        try {
+            if (newMode != null) {
+                log.debug("Setting mode of subject {} to {}", subject, newMode);
+                return this.schemaRegistryClient.setMode(newMode, subject);
+            }
+            log.debug("Requesting mode of subject {}", subject);
+            return this.schemaRegistryClient.getMode(subject);
+        } catch (IOException | RestClientException e) {
+            throw new IllegalStateException("Internal error in mock schema registry client", e);
+        }
+    }
+
     private String getCompatibility(String subject) {
         if (subject == null) {
             log.debug("Requesting registry base compatibility");
@@ -218,13 +310,59 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
     }
 
     public SchemaRegistryClient getSchemaRegistryClient() {
-        return new CachedSchemaRegistryClient(this.getUrl(), IDENTITY_MAP_CAPACITY);
+        return new CachedSchemaRegistryClient(Collections.singletonList(this.getUrl()), IDENTITY_MAP_CAPACITY,
+                RegistryPairContext.schemaProviders(), Collections.emptyMap());
     }
 
     public String getUrl() {
         return "http://localhost:" + this.mockSchemaRegistry.port();
     }
 
+    /**
+     * Starts another node of this registry, which answers every request like the registry after {@code delayMs}.
+     *
+     * @return the url of the node
+     */
+    public String startNode(int delayMs) {
+        final WireMockServer node = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        node.start();
+        node.stubFor(WireMock.any(WireMock.anyUrl())
+                .willReturn(WireMock.aResponse().proxiedFrom(this.getUrl()).withFixedDelay(delayMs)));
+        this.nodes.add(node);
+        return "http://localhost:" + node.port();
+    }
+
+    /**
+     * Stops the node started with {@code url}, so its url no longer answers.
+     */
+    public void stopNode(String url) {
+        this.node(url).stop();
+    }
+
+    /**
+     * @return the number of schemas fetched by id from the node started with {@code url}
+     */
+    public int schemaFetches(String url) {
+        return this.node(url).findAll(WireMock.getRequestedFor(WireMock.urlPathMatching(SCHEMA_BY_ID_PATTERN + "\\d+")))
+                .size();
+    }
+
+    private WireMockServer node(String url) {
+        return this.nodes.stream()
+                .filter(node -> url.equals("http://localhost:" + node.port()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No node " + url));
+    }
+
+    /**
+     * @return the number of requests this registry received for {@code subject}, with {@code method} and a path
+     * below the subject's that matches {@code suffixRegex}, e.g. {@code ""} for lookups or {@code "/versions.*"}
+     */
+    public int subjectRequests(RequestMethod method, String subject, String suffixRegex) {
+        return this.mockSchemaRegistry.findAll(RequestPatternBuilder.newRequestPattern(method,
+                WireMock.urlPathMatching("/subjects/" + Pattern.quote(subject) + suffixRegex))).size();
+    }
+
     private abstract class SubjectsVersionHandler implements ResponseDefinitionTransformerV2 {
         // Expected url pattern /subjects/.*-value/versions
         protected final Splitter urlSplitter = Splitter.on('/').omitEmptyStrings();
@@ -245,9 +383,10 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         public ResponseDefinition transform(ServeEvent serveEvent) {
             try {
             	final Request request = serveEvent.getRequest();
-                final int id = SchemaRegistryMock.this.register(getSubject(request),
-                        new Schema.Parser()
-                                .parse(RegisterSchemaRequest.fromJson(request.getBodyAsString()).getSchema()));
+                final RegisterSchemaRequest registration = RegisterSchemaRequest.fromJson(request.getBodyAsString());
+                final ParsedSchema schema = SchemaRegistryMock.this.parse(registration);
+                final int id = SchemaRegistryMock.this.register(getSubject(request), schema,
+                        registration.getVersion(), registration.getId());
                 final RegisterSchemaResponse registerSchemaResponse = new RegisterSchemaResponse();
                 registerSchemaResponse.setId(id);
                 return ResponseDefinitionBuilder.jsonResponse(registerSchemaResponse);
@@ -262,6 +401,21 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         }
     }
 
+    private class ListSubjectsHandler extends SubjectsVersionHandler {
+
+        @Override
+        public ResponseDefinition transform(ServeEvent serveEvent) {
+            final Collection<String> subjects = SchemaRegistryMock.this.listSubjects();
+            log.debug("Got subjects {}", subjects);
+            return ResponseDefinitionBuilder.jsonResponse(subjects);
+        }
+
+        @Override
+        public String getName() {
+            return ListSubjectsHandler.class.getSimpleName();
+        }
+    }
+
     private class ListVersionsHandler extends SubjectsVersionHandler {
 
         @Override
@@ -308,6 +462,65 @@ public class SchemaRegistryMock implements BeforeEachCallback, AfterEachCallback
         }
     }
 
+    private class LookupVersionHandler extends SubjectsVersionHandler {
+
+        @Override
+        protected String getSubject(Request request) {
+            // Expected url pattern /subjects/.*-value?normalize=false
+            return Iterables.get(this.urlSplitter.split(stripQuery(request.getUrl())), 1);
+        }
+
+        @Override
+        public ResponseDefinition transform(ServeEvent serveEvent) {
+            try {
+                final Request request = serveEvent.getRequest();
+                final io.confluent.kafka.schemaregistry.client.rest.entities.Schema found = SchemaRegistryMock.this.lookupVersion(
+                        getSubject(request), RegisterSchemaRequest.fromJson(request.getBodyAsString()));
+                if (found == null) {
+                    return ResponseDefinitionBuilder.jsonResponse(new ErrorMessage(SCHEMA_NOT_FOUND_ERROR_CODE, "Schema not found"),
+                            HTTP_NOT_FOUND);
+                }
+                return ResponseDefinitionBuilder.jsonResponse(found);
+            } catch (final IOException e) {
+                throw new IllegalArgumentException("Cannot parse schema lookup request", e);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return LookupVersionHandler.class.getSimpleName();
+        }
+    }
+
+    private class ModeHandler extends SubjectsVersionHandler {
+        private final ObjectMapper mapper = new ObjectMapper();
+
+        @Override
+        protected String getSubject(Request request) {
+            // Expected url pattern /mode/.*-value
+            return Iterables.get(this.urlSplitter.split(stripQuery(request.getUrl())), 1);
+        }
+
+        @Override
+        public ResponseDefinition transform(ServeEvent serveEvent) {
+            try {
+                final Request request = serveEvent.getRequest();
+                final String newMode = request.getMethod() == RequestMethod.PUT
+                        ? this.mapper.readTree(request.getBodyAsString()).get("mode").asText()
+                        : null;
+                final String mode = SchemaRegistryMock.this.mode(getSubject(request), newMode);
+                return ResponseDefinitionBuilder.jsonResponse(Collections.singletonMap("mode", mode));
+            } catch (final IOException e) {
+                throw new IllegalArgumentException("Cannot parse mode request", e);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return ModeHandler.class.getSimpleName();
+        }
+    }
+
     private class GetConfigHandler extends SubjectsVersionHandler {
 
         @Override
@@ -0,0 +1,186 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.apache.kafka.connect.connector.ConnectRecord;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+import cricket.jmoore.kafka.connect.transforms.SchemaRegistryTransfer.ConfigName;
+
+/**
+ * Records of many tasks missing the cache for the same schema at once, with the source registry held until all
+ * of them are waiting.
+ */
+@SuppressWarnings("unchecked")
+public class SingleFlightTest {
+    private static final String TOPIC = "topic";
+    private static final String SOURCE_URL = "http://source:8081";
+    private static final String DEST_URL = "http://dest:8081";
+    private static final int THREADS = 8;
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicInteger registrations = new AtomicInteger();
+    private final CountDownLatch fetching = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile RestClientException fetchFailure;
+
+    private final MockSchemaRegistryClient source = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders()) {
+        @Override
+        public ParsedSchema getSchemaById(int id) throws IOException, RestClientException {
+            fetches.incrementAndGet();
+            fetching.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            final RestClientException failure = fetchFailure;
+            if (failure != null) {
+                throw failure;
+            }
+            return super.getSchemaById(id);
+        }
+    };
+    private final MockSchemaRegistryClient dest = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders()) {
+        @Override
+        public int register(String subject, ParsedSchema schema) throws IOException, RestClientException {
+            registrations.incrementAndGet();
+            return super.register(subject, schema);
+        }
+    };
+
+    private SchemaRegistryTransfer smt;
+    private ExecutorService executor;
+    private int sourceId;
+
+    @BeforeEach
+    public void setup() throws IOException, RestClientException {
+        // keep the destination from handing out the source id, so a record left unchanged would be noticed
+        dest.register("placeholder-value", new AvroSchema(TransformTest.INT_SCHEMA));
+        sourceId = source.register(TOPIC + "-value", new AvroSchema(TransformTest.STRING_SCHEMA));
+        registrations.set(0);
+
+        smt = new SchemaRegistryTransfer((urls, schemaCapacity, props) -> urls.contains(SOURCE_URL) ? source : dest);
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, SOURCE_URL);
+        configs.put(ConfigName.DEST_SCHEMA_REGISTRY_URL, DEST_URL);
+        configs.put(ConfigName.TRANSFER_KEYS, false);
+        smt.configure(configs);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    public void teardown() {
+        release.countDown();
+        executor.shutdownNow();
+        smt.close();
+    }
+
+    private ConnectRecord record() {
+        ByteBuffer value = ByteBuffer.allocate(6);
+        value.put((byte) 0).putInt(sourceId).put((byte) 0);
+        return new SourceRecord(null, null, TOPIC, null, null, Schema.OPTIONAL_BYTES_SCHEMA, value.array());
+    }
+
+    private double metric(String name) {
+        return smt.metrics().metrics().metrics().entrySet().stream()
+                .filter(e -> e.getKey().name().equals(name))
+                .mapToDouble(e -> ((Number) e.getValue().metricValue()).doubleValue())
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no metric " + name));
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Applies a record on every thread and returns once all of them missed the cache and the first one is fetching
+     * the schema, which is still held.
+     */
+    private List<Future<Integer>> missConcurrently() throws InterruptedException {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> ByteBuffer.wrap((byte[]) smt.apply(record()).value()).getInt(1)));
+        }
+        assertTrue(fetching.await(10, TimeUnit.SECONDS), "the first miss fetched the schema");
+        await(() -> metric("cache-miss-total") == THREADS, "every record missed the cache");
+        return results;
+    }
+
+    @Test
+    public void testConcurrentMissesCopyOnce() throws Exception {
+        List<Future<Integer>> results = missConcurrently();
+        release.countDown();
+
+        List<Integer> destIds = new ArrayList<>();
+        for (Future<Integer> result : results) {
+            destIds.add(result.get(10, TimeUnit.SECONDS));
+        }
+        int destId = dest.getId(TOPIC + "-value", new AvroSchema(TransformTest.STRING_SCHEMA));
+        assertEquals(Collections.nCopies(THREADS, destId), destIds, "every record got the destination id");
+        assertEquals(1, fetches.get(), "the schema was fetched once");
+        assertEquals(1, registrations.get(), "the schema was registered once");
+        assertEquals(0, metric("in-flight-misses"));
+    }
+
+    @Test
+    public void testFailedCopyFailsEveryWaiterAndIsRetried() throws Exception {
+        fetchFailure = new RestClientException("Unprocessable", 422, 42201);
+        List<Future<Integer>> results = missConcurrently();
+        release.countDown();
+
+        for (Future<Integer> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("the record should have failed with the copy");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ConnectException, "the record failed with " + e.getCause());
+            }
+        }
+        assertEquals(1, fetches.get(), "the waiters did not fetch the schema themselves");
+        assertEquals(1, metric("failures-source-fetch-total"), "the failure was counted once");
+        assertEquals(0, metric("in-flight-misses"), "the failed copy left the in-flight table");
+
+        fetchFailure = null;
+        smt.apply(record());
+        assertEquals(2, fetches.get(), "the next record copied the schema again");
+        assertEquals(1, registrations.get());
+    }
+}
@@ -0,0 +1,39 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+
+public class SourceSchemaCacheTest {
+    private static final AvroSchema STRING = new AvroSchema("\"string\"");
+    private static final AvroSchema INT = new AvroSchema("\"int\"");
+    private static final AvroSchema LONG = new AvroSchema("\"long\"");
+
+    @Test
+    public void testDisabledKeepsNothing() {
+        SourceSchemaCache cache = new SourceSchemaCache(0);
+        cache.put(1, STRING);
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCapacityEvictsLeastRecentlyUsed() {
+        SourceSchemaCache cache = new SourceSchemaCache(2);
+        cache.put(1, STRING);
+        cache.put(2, INT);
+        assertSame(STRING, cache.get(1));
+        cache.put(3, LONG);
+
+        assertEquals(2, cache.size());
+        assertSame(STRING, cache.get(1), "the schema read last stays");
+        assertNull(cache.get(2), "the least recently used schema made room");
+        assertSame(LONG, cache.get(3));
+    }
+}
@@ -0,0 +1,76 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.serializers.subject.RecordNameStrategy;
+import io.confluent.kafka.serializers.subject.TopicNameStrategy;
+
+public class SubjectNamesTest {
+    private static final ParsedSchema NAME_SCHEMA = new AvroSchema(TransformTest.NAME_SCHEMA);
+
+    private static class CountingStrategy extends RecordNameStrategy {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String subjectName(String topic, boolean isKey, ParsedSchema schema) {
+            calls.incrementAndGet();
+            return super.subjectName(topic, isKey, schema);
+        }
+    }
+
+    @Test
+    public void testNamesAreRememberedPerCacheKey() {
+        CountingStrategy keys = new CountingStrategy();
+        CountingStrategy values = new CountingStrategy();
+        SubjectNames names = new SubjectNames(keys, values, 10);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(TransformTest.NAME_SCHEMA.getFullName(),
+                    names.subjectName(SchemaIdCache.key(0, false, 1), "topic", false, NAME_SCHEMA));
+        }
+        assertEquals(1, values.calls.get());
+        assertEquals(0, keys.calls.get());
+
+        names.subjectName(SchemaIdCache.key(0, true, 1), "topic", true, NAME_SCHEMA);
+        names.subjectName(SchemaIdCache.key(1, false, 1), "other", false, NAME_SCHEMA);
+        assertEquals(1, keys.calls.get());
+        assertEquals(2, values.calls.get());
+        assertEquals(3, names.size());
+    }
+
+    @Test
+    public void testForgetsNamesWhenFull() {
+        CountingStrategy values = new CountingStrategy();
+        SubjectNames names = new SubjectNames(new CountingStrategy(), values, 2);
+
+        for (int id = 0; id < 3; id++) {
+            names.subjectName(SchemaIdCache.key(0, false, id), "topic", false, NAME_SCHEMA);
+        }
+        assertEquals(1, names.size());
+        names.subjectName(SchemaIdCache.key(0, false, 0), "topic", false, NAME_SCHEMA);
+        assertEquals(4, values.calls.get());
+    }
+
+    @Test
+    public void testTopicNames() {
+        SubjectNames names = SubjectNames.topicNames(10);
+        assertEquals("topic-key", names.subjectName(SchemaIdCache.key(0, true, 1), "topic", true, NAME_SCHEMA));
+        assertEquals("topic-value", names.subjectName(SchemaIdCache.key(0, false, 1), "topic", false, NAME_SCHEMA));
+    }
+
+    @Test
+    public void testSameStrategies() {
+        SubjectNames topicNames = SubjectNames.topicNames(10);
+        assertTrue(topicNames.sameStrategies(new SubjectNames(new TopicNameStrategy(), new TopicNameStrategy(), 1)));
+        assertFalse(topicNames.sameStrategies(new SubjectNames(new TopicNameStrategy(), new RecordNameStrategy(), 1)));
+    }
+}
@@ -0,0 +1,35 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class SubjectRegistrationsTest {
+
+    @Test
+    public void testPutThenGet() {
+        SubjectRegistrations registrations = new SubjectRegistrations(10);
+        registrations.put("topic-value", 1, 101);
+        registrations.put("other-value", 1, 102);
+
+        assertEquals(101, registrations.get("topic-value", 1));
+        assertEquals(102, registrations.get("other-value", 1));
+        assertEquals(SchemaIdCache.NO_ID, registrations.get("topic-key", 1));
+        assertEquals(2, registrations.size());
+    }
+
+    @Test
+    public void testForgetsEverythingAtCapacity() {
+        SubjectRegistrations registrations = new SubjectRegistrations(2);
+        registrations.put("a-value", 1, 101);
+        registrations.put("b-value", 1, 102);
+        registrations.put("b-value", 1, 102);
+        assertEquals(2, registrations.size(), "putting a known pair again takes no room");
+
+        registrations.put("c-value", 1, 103);
+        assertEquals(1, registrations.size());
+        assertEquals(SchemaIdCache.NO_ID, registrations.get("a-value", 1));
+        assertEquals(103, registrations.get("c-value", 1));
+    }
+}
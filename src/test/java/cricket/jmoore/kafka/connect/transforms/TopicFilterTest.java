@@ -0,0 +1,82 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+public class TopicFilterTest {
+
+    private static TopicFilter filter(String... entries) {
+        return TopicFilter.compile(Arrays.asList(entries), "ignore.list");
+    }
+
+    @Test
+    public void testEmptyListIgnoresNothing() {
+        TopicFilter filter = TopicFilter.compile(Collections.emptyList(), "ignore.list");
+        assertTrue(filter.isEmpty());
+        assertFalse(filter.ignored("orders"));
+    }
+
+    @Test
+    public void testLiteralsAndRegexes() {
+        TopicFilter filter = filter("orders", "audit\\..*", "tmp-[0-9]+");
+        assertTrue(filter.ignored("orders"));
+        assertFalse(filter.ignored("orders-v2"), "literal entries match whole topic names only");
+        assertTrue(filter.ignored("audit.logins"));
+        assertTrue(filter.ignored("tmp-42"));
+        assertFalse(filter.ignored("tmp-x"));
+        assertFalse(filter.ignored("payments"));
+    }
+
+    @Test
+    public void testEntriesDoNotLeakIntoEachOther() {
+        // joined naively as a|b$, the anchor or flag of one entry would change how the other matches
+        TopicFilter filter = filter("(?i)ab", "c.*d");
+        assertTrue(filter.ignored("AB"));
+        assertFalse(filter.ignored("CxD"), "the case-insensitive flag of the first entry does not apply to the second");
+        assertTrue(filter.ignored("cxd"));
+    }
+
+    @Test
+    public void testInvalidRegexIsComparedLiterally() {
+        TopicFilter filter = filter("bad[topic");
+        assertTrue(filter.ignored("bad[topic"));
+        assertFalse(filter.ignored("badt"));
+    }
+
+    @Test
+    public void testBackReferencesKeepTheirGroups() {
+        TopicFilter filter = filter("(x)y", "(a+)-\\1");
+        assertTrue(filter.ignored("aa-aa"));
+        assertFalse(filter.ignored("aa-a"));
+        assertTrue(filter.ignored("xy"));
+    }
+
+    @Test
+    public void testVerdictIsCached() {
+        TopicFilter filter = filter("orders.*");
+        for (int i = 0; i < 3; i++) {
+            assertTrue(filter.ignored("orders-eu"));
+            assertFalse(filter.ignored("payments"));
+        }
+    }
+
+    @Test
+    public void testForgetsVerdictsAtCapacity() {
+        TopicFilter filter = filter("orders.*");
+        for (int i = 0; i < TopicFilter.MAX_CACHED_TOPICS; i++) {
+            assertFalse(filter.ignored("payments-" + i));
+        }
+        assertEquals(TopicFilter.MAX_CACHED_TOPICS, filter.cachedVerdicts());
+
+        assertTrue(filter.ignored("orders-eu"));
+        assertEquals(1, filter.cachedVerdicts(), "the new topic's verdict is cached after the others were forgotten");
+        assertTrue(filter.ignored("orders-eu"));
+    }
+}
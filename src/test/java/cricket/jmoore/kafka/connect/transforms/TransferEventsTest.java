@@ -0,0 +1,155 @@
+/* Licensed under Apache-2.0 */
+package cricket.jmoore.kafka.connect.transforms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.connect.connector.ConnectRecord;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
+import io.confluent.kafka.schemaregistry.client.MockSchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+
+import cricket.jmoore.kafka.connect.transforms.SchemaRegistryTransfer.ConfigName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+@SuppressWarnings("unchecked")
+public class TransferEventsTest {
+    private static final String TOPIC = "topic";
+    private static final String SOURCE_URL = "http://source:8081";
+    private static final String DEST_URL = "http://dest:8081";
+    private static final String[] EVENTS = {"cricket.jmoore.SchemaCacheMiss", "cricket.jmoore.SourceSchemaFetch",
+            "cricket.jmoore.DestSchemaRegister", "cricket.jmoore.IdRewrite"};
+
+    private volatile RestClientException fetchFailure;
+    private final MockSchemaRegistryClient source = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders()) {
+        @Override
+        public ParsedSchema getSchemaById(int id) throws IOException, RestClientException {
+            final RestClientException failure = fetchFailure;
+            if (failure != null) {
+                throw failure;
+            }
+            return super.getSchemaById(id);
+        }
+    };
+    private final MockSchemaRegistryClient dest = new MockSchemaRegistryClient(RegistryPairContext.schemaProviders());
+
+    @TempDir
+    Path dir;
+    private SchemaRegistryTransfer smt;
+    private Recording recording;
+
+    @BeforeEach
+    public void setup() throws IOException, RestClientException {
+        // keep the destination from handing out the source id, so that the id is rewritten
+        dest.register("placeholder-value", new AvroSchema(TransformTest.INT_SCHEMA));
+
+        smt = new SchemaRegistryTransfer((urls, schemaCapacity, props) -> urls.contains(SOURCE_URL) ? source : dest);
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, SOURCE_URL);
+        configs.put(ConfigName.DEST_SCHEMA_REGISTRY_URL, DEST_URL);
+        configs.put(ConfigName.TRANSFER_KEYS, false);
+        configs.put(ConfigName.REGISTRY_RETRY_MAX_ATTEMPTS, 1);
+        smt.configure(configs);
+
+        recording = new Recording();
+        for (String event : EVENTS) {
+            recording.enable(event).withoutStackTrace();
+        }
+        recording.start();
+    }
+
+    @AfterEach
+    public void teardown() {
+        recording.close();
+        smt.close();
+    }
+
+    private ConnectRecord record(int sourceId) {
+        ByteBuffer value = ByteBuffer.allocate(6);
+        value.put((byte) 0).putInt(sourceId).put((byte) 0);
+        return new SourceRecord(null, null, TOPIC, null, null, Schema.OPTIONAL_BYTES_SCHEMA, value.array());
+    }
+
+    private Map<String, RecordedEvent> stopRecording() throws IOException {
+        recording.stop();
+        Path file = dir.resolve("transfer.jfr");
+        recording.dump(file);
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        return events.stream().collect(Collectors.toMap(e -> e.getEventType().getName(), e -> e));
+    }
+
+    @Test
+    public void testCopyEmitsEveryEvent() throws IOException, RestClientException {
+        int sourceId = source.register(TOPIC + "-value", new AvroSchema(TransformTest.STRING_SCHEMA));
+        ConnectRecord applied = smt.apply(record(sourceId));
+        int destId = ByteBuffer.wrap((byte[]) applied.value()).getInt(1);
+
+        Map<String, RecordedEvent> events = stopRecording();
+        assertEquals(EVENTS.length, events.size(), "one event of each type");
+
+        RecordedEvent miss = events.get("cricket.jmoore.SchemaCacheMiss");
+        assertEquals(TOPIC, miss.getString("topic"));
+        assertEquals(false, miss.getBoolean("isKey"));
+        assertEquals(sourceId, miss.getInt("sourceId"));
+        assertEquals(destId, miss.getInt("destId"));
+
+        RecordedEvent fetch = events.get("cricket.jmoore.SourceSchemaFetch");
+        assertEquals(TOPIC, fetch.getString("topic"));
+        assertEquals(sourceId, fetch.getInt("sourceId"));
+        assertEquals("found", fetch.getString("outcome"));
+        assertNull(fetch.getString("error"));
+
+        RecordedEvent register = events.get("cricket.jmoore.DestSchemaRegister");
+        assertEquals(TOPIC + "-value", register.getString("subject"));
+        assertEquals(sourceId, register.getInt("sourceId"));
+        assertEquals(destId, register.getInt("destId"));
+
+        RecordedEvent rewrite = events.get("cricket.jmoore.IdRewrite");
+        assertEquals(TOPIC, rewrite.getString("topic"));
+        assertEquals(sourceId, rewrite.getInt("sourceId"));
+        assertEquals(destId, rewrite.getInt("destId"));
+    }
+
+    @Test
+    public void testFetchReportsNotFound() throws IOException {
+        assertThrows(ConnectException.class, () -> smt.apply(record(42)));
+
+        RecordedEvent fetch = stopRecording().get("cricket.jmoore.SourceSchemaFetch");
+        assertEquals(42, fetch.getInt("sourceId"));
+        assertEquals("not found", fetch.getString("outcome"));
+    }
+
+    @Test
+    public void testFetchReportsServerError() throws IOException {
+        fetchFailure = new RestClientException("Internal Server Error", 500, 50001);
+        assertThrows(ConnectException.class, () -> smt.apply(record(42)));
+
+        Map<String, RecordedEvent> events = stopRecording();
+        RecordedEvent fetch = events.get("cricket.jmoore.SourceSchemaFetch");
+        assertEquals("failed", fetch.getString("outcome"), "a server error is not reported as not found");
+        assertTrue(fetch.getString("error").contains("Internal Server Error"));
+        assertEquals(-1, events.get("cricket.jmoore.SchemaCacheMiss").getInt("destId"));
+    }
+}
@@ -16,13 +16,20 @@ import static org.junit.jupiter.api.Assertions.fail;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.apache.avro.SchemaBuilder;
 import org.apache.avro.generic.GenericData;
@@ -31,6 +38,7 @@ import org.apache.avro.generic.GenericRecordBuilder;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.connect.connector.ConnectRecord;
 import org.apache.kafka.connect.data.Schema;
@@ -41,13 +49,26 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.avro.AvroSchema;
 import io.confluent.kafka.schemaregistry.client.SchemaMetadata;
 import io.confluent.kafka.schemaregistry.client.SchemaRegistryClient;
+import io.confluent.kafka.schemaregistry.client.rest.entities.SchemaReference;
 import io.confluent.kafka.schemaregistry.client.rest.exceptions.RestClientException;
+import io.confluent.kafka.schemaregistry.json.JsonSchema;
+import io.confluent.kafka.schemaregistry.protobuf.ProtobufSchema;
 import io.confluent.kafka.serializers.NonRecordContainer;
+import io.confluent.kafka.serializers.subject.RecordNameStrategy;
+import io.confluent.kafka.serializers.subject.TopicRecordNameStrategy;
+
+import com.github.tomakehurst.wiremock.http.RequestMethod;
 
 import cricket.jmoore.kafka.connect.transforms.SchemaRegistryTransfer.ConfigName;
 
@@ -82,6 +103,12 @@ public class TransformTest {
             .requiredString("first")
             .name("surname").aliases("last").type().stringType().noDefault()
             .endRecord();
+    public static final ProtobufSchema GREETING_PROTO = new ProtobufSchema("syntax = \"proto3\";\n"
+            + "package cricket.jmoore.kafka.connect.transforms;\n"
+            + "message Envelope { string id = 1; }\n"
+            + "message Greeting { string text = 1; }\n");
+    public static final JsonSchema GREETING_JSON = new JsonSchema(
+            "{\"type\":\"object\",\"properties\":{\"text\":{\"type\":\"string\"}}}");
 
     @RegisterExtension
     final SchemaRegistryMock sourceSchemaRegistry =
@@ -665,6 +692,723 @@ public class TransformTest {
                 "the value's avro data is not modified");
     }
 
+    @Test
+    public void testSchemaReusedAcrossTopics() {
+        configure(false);
+
+        final String otherTopic = TOPIC + "-other";
+        log.info("Registering the same schema for two topics in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+        int otherSourceId = sourceSchemaRegistry.registerSchema(otherTopic, false, STRING_SCHEMA);
+
+        try {
+            // the transform rewrites the byte[] in place, so each record gets its own copy
+            byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+            byte[] otherValue = encodeAvroObject(STRING_SCHEMA, otherSourceId, HELLO_WORLD_VALUE).toByteArray();
+            ConnectRecord record = createRecord(null, value);
+            ConnectRecord otherRecord = new SourceRecord(null, null, otherTopic,
+                    Schema.OPTIONAL_BYTES_SCHEMA, null, Schema.OPTIONAL_BYTES_SCHEMA, otherValue);
+
+            log.info("applying transformation");
+            assertDoesNotThrow(() -> smt.apply(record));
+            assertDoesNotThrow(() -> smt.apply(otherRecord));
+
+            SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+            assertEquals(1, destClient.getAllVersions(TOPIC + "-value").size(),
+                    "the first topic's subject was registered");
+            assertEquals(1, destClient.getAllVersions(otherTopic + "-value").size(),
+                    "the second topic's subject was registered even though the schema id was seen before");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testRegistryThreads() {
+        smtConfiguration.put(ConfigName.REGISTRY_THREADS, 2);
+        configure(true);
+
+        log.info("Registering schemas in source registry");
+        int sourceKeyId = sourceSchemaRegistry.registerSchema(TOPIC, true, INT_SCHEMA);
+        int sourceValueId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        try {
+            byte[] key = encodeAvroObject(INT_SCHEMA, sourceKeyId, AVRO_CONTENT_OFFSET).toByteArray();
+            byte[] value = encodeAvroObject(STRING_SCHEMA, sourceValueId, HELLO_WORLD_VALUE).toByteArray();
+            ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(key, value)));
+
+            SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+            assertEquals(destClient.getLatestSchemaMetadata(TOPIC + "-key").getId(),
+                    ByteBuffer.wrap((byte[]) appliedRecord.key()).getInt(1),
+                    "record key's schema id matches destination id");
+            assertEquals(destClient.getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                    ByteBuffer.wrap((byte[]) appliedRecord.value()).getInt(1),
+                    "record value's schema id matches destination id");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testPrefetchCopiesBatchBeforeApply() {
+        smtConfiguration.put(ConfigName.REGISTRY_THREADS, 4);
+        configure(false);
+
+        final String otherTopic = TOPIC + "-other";
+        log.info("Registering schemas in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, NAME_SCHEMA);
+        int nextSourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, NAME_SCHEMA_ALIASED);
+        int otherSourceId = sourceSchemaRegistry.registerSchema(otherTopic, false, STRING_SCHEMA);
+
+        try {
+            GenericData.Record name = new GenericRecordBuilder(NAME_SCHEMA).set("first", "fname").set("last", "lname").build();
+            GenericData.Record aliasedName = new GenericRecordBuilder(NAME_SCHEMA_ALIASED).set("first", "fname").set("surname", "lname").build();
+            List<ConnectRecord> batch = Arrays.asList(
+                    createRecord(null, encodeAvroObject(NAME_SCHEMA, sourceId, name).toByteArray()),
+                    createRecord(null, encodeAvroObject(NAME_SCHEMA_ALIASED, nextSourceId, aliasedName).toByteArray()),
+                    createRecord(null, encodeAvroObject(NAME_SCHEMA, sourceId, name).toByteArray()),
+                    new SourceRecord(null, null, otherTopic, Schema.OPTIONAL_BYTES_SCHEMA, null, Schema.OPTIONAL_BYTES_SCHEMA,
+                            encodeAvroObject(STRING_SCHEMA, otherSourceId, HELLO_WORLD_VALUE).toByteArray()));
+
+            smt.prefetch(batch);
+
+            SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+            assertEquals(2, destClient.getAllVersions(TOPIC + "-value").size(),
+                    "both versions of the first topic's schema were copied before apply()");
+            assertEquals(1, destClient.getAllVersions(otherTopic + "-value").size(),
+                    "the second topic's schema was copied before apply()");
+
+            for (ConnectRecord record : batch) {
+                assertDoesNotThrow(() -> smt.apply(record));
+            }
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+    }
+
+    private double metric(String name) {
+        return smt.metrics().metrics().metrics().entrySet().stream()
+                .filter(e -> e.getKey().name().equals(name))
+                .mapToDouble(e -> ((Number) e.getValue().metricValue()).doubleValue())
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no metric " + name));
+    }
+
+    @Test
+    public void testMetrics() {
+        smtConfiguration.put(ConfigName.IGNORE_LIST, "ignored-.*");
+        configure(false);
+
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                ConnectRecord record = createRecord(null, encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray());
+                assertDoesNotThrow(() -> smt.apply(record));
+            }
+            ConnectRecord ignored = new SourceRecord(null, null, "ignored-topic",
+                    Schema.OPTIONAL_BYTES_SCHEMA, null, Schema.OPTIONAL_BYTES_SCHEMA, new byte[0]);
+            assertDoesNotThrow(() -> smt.apply(ignored));
+            ConnectRecord unknown = createRecord(null, encodeAvroObject(STRING_SCHEMA, 1000, HELLO_WORLD_VALUE).toByteArray());
+            assertThrows(ConnectException.class, () -> smt.apply(unknown));
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        assertEquals(3, metric("value-records-transformed-total"));
+        assertEquals(0, metric("key-records-transformed-total"));
+        assertEquals(1, metric("records-ignored-total"));
+        assertEquals(2, metric("cache-hit-total"));
+        assertEquals(2, metric("cache-miss-total"), "the first record and the unknown schema id missed the cache");
+        assertEquals(1, metric("failures-schema-not-found-total"), "the unknown schema id was counted as a failure");
+        assertEquals(0, metric("in-flight-misses"));
+        assertTrue(metric("source-fetch-latency-max") >= 0);
+    }
+
+    @Test
+    public void testNegativeCacheSkipsRegistryForUnknownId() {
+        smtConfiguration.put(ConfigName.NEGATIVE_CACHE_TTL_MS, 60_000L);
+        configure(false);
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                ConnectRecord unknown = createRecord(null, encodeAvroObject(STRING_SCHEMA, 1000, HELLO_WORLD_VALUE).toByteArray());
+                assertThrows(ConnectException.class, () -> smt.apply(unknown));
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        assertEquals(1, metric("cache-miss-total"), "only the first record asked the source registry");
+        assertEquals(3, metric("failures-schema-not-found-total"), "every record still failed");
+    }
+
+    @Test
+    public void testTopicsPastTheLimitAreTranslatedUncached() {
+        configure(false);
+        RegistryPairContext context = smt.context();
+        for (int i = 0; i < RegistryPairContext.MAX_TOPICS; i++) {
+            context.cacheKey(TOPIC + "-" + i, false, 1);
+        }
+        assertEquals(SchemaIdCache.NO_KEY, context.cacheKey(TOPIC, false, 1), "the topic came after the limit");
+
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        for (int i = 0; i < 2; i++) {
+            ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+            try {
+                assertEquals(destSchemaRegistry.getSchemaRegistryClient().getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                        ByteBuffer.wrap((byte[]) appliedRecord.value()).getInt(1),
+                        "record value's schema id matches destination id");
+            } catch (IOException | RestClientException e) {
+                fail(e);
+            }
+        }
+        assertEquals(0, context.schemaCache.size(), "nothing was cached for the topic");
+        assertEquals(2, metric("cache-miss-total"));
+        assertEquals(1, destSchemaRegistry.subjectRequests(RequestMethod.POST, TOPIC + "-value", "/versions"),
+                "the second record found the registration of the first");
+    }
+
+    @Test
+    public void testSourceSchemaCacheReusesSchemaForKeyAndValue() {
+        // each node has its own client cache, and the value's fetch would go to the node that did not serve the key
+        String first = sourceSchemaRegistry.startNode(0);
+        String second = sourceSchemaRegistry.startNode(0);
+        smtConfiguration.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, first + "," + second);
+        smtConfiguration.put(ConfigName.SRC_LOAD_BALANCE, true);
+        smtConfiguration.put(ConfigName.SOURCE_SCHEMA_CACHE_CAPACITY, 10);
+        configure(true);
+
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        try {
+            byte[] key = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+            byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+            ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(key, value)));
+
+            SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+            assertEquals(destClient.getLatestSchemaMetadata(TOPIC + "-key").getId(),
+                    ByteBuffer.wrap((byte[]) appliedRecord.key()).getInt(1),
+                    "record key's schema id matches destination id");
+            assertEquals(destClient.getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                    ByteBuffer.wrap((byte[]) appliedRecord.value()).getInt(1),
+                    "the value reused the schema fetched for the key");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+        assertEquals(2, metric("cache-miss-total"));
+        assertEquals(1, sourceSchemaRegistry.schemaFetches(first) + sourceSchemaRegistry.schemaFetches(second),
+                "the schema was fetched from the source registry once");
+    }
+
+    private ConnectRecord createRecord(String topic, int sourceId) {
+        ByteBuffer value = ByteBuffer.allocate(AVRO_CONTENT_OFFSET + 1);
+        value.put(MAGIC_BYTE).putInt(sourceId).put((byte) 0);
+        return new SourceRecord(null, null, topic, null, null, Schema.OPTIONAL_BYTES_SCHEMA, value.array());
+    }
+
+    @Test
+    public void testLoadBalancingSpreadsFetchesOverNodes() {
+        String first = sourceSchemaRegistry.startNode(0);
+        String second = sourceSchemaRegistry.startNode(0);
+        smtConfiguration.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, first + "," + second);
+        smtConfiguration.put(ConfigName.SRC_LOAD_BALANCE, true);
+        configure(false);
+
+        org.apache.avro.Schema[] schemas = {INT_SCHEMA, STRING_SCHEMA, BOOLEAN_SCHEMA, NAME_SCHEMA};
+        for (int i = 0; i < schemas.length; i++) {
+            String topic = TOPIC + i;
+            int sourceId = sourceSchemaRegistry.registerSchema(topic, false, schemas[i]);
+            assertDoesNotThrow(() -> smt.apply(createRecord(topic, sourceId)));
+        }
+
+        assertEquals(schemas.length, sourceSchemaRegistry.schemaFetches(first) + sourceSchemaRegistry.schemaFetches(second));
+        assertTrue(sourceSchemaRegistry.schemaFetches(first) > 0, "the first node served fetches");
+        assertTrue(sourceSchemaRegistry.schemaFetches(second) > 0, "the second node served fetches");
+    }
+
+    @Test
+    public void testSlowFetchIsHedgedToAnotherNode() {
+        String slow = sourceSchemaRegistry.startNode(3000);
+        String fast = sourceSchemaRegistry.startNode(0);
+        smtConfiguration.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, slow + "," + fast);
+        smtConfiguration.put(ConfigName.SRC_LOAD_BALANCE, true);
+        smtConfiguration.put(ConfigName.SRC_HEDGE_DELAY_MS, 100L);
+        smtConfiguration.put(ConfigName.REGISTRY_THREADS, 2);
+        configure(false);
+
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+        long start = System.nanoTime();
+        assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000), "the fast node answered first");
+        assertEquals(1, sourceSchemaRegistry.schemaFetches(fast));
+        assertEquals(1, metric("source-fetch-hedged-total"));
+    }
+
+    /**
+     * Registers {@code schema} in the source registry and applies a record of it, whose value is {@code data}
+     * after the schema id. The first destination id is taken beforehand, so that an unchanged id would be noticed.
+     *
+     * @param inDestination whether the destination subject has the schema already
+     * @return the applied record's value
+     */
+    private byte[] applyNewSchema(ParsedSchema schema, byte[] data, boolean inDestination) {
+        log.info("Registering {} schema in source registry", schema.schemaType());
+        destSchemaRegistry.registerSchema(TOPIC + "-placeholder", false, STRING_SCHEMA);
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, schema);
+        if (inDestination) {
+            destSchemaRegistry.registerSchema(TOPIC, false, schema);
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(AVRO_CONTENT_OFFSET + data.length);
+        value.put(MAGIC_BYTE).putInt(sourceId).put(data);
+        return (byte[]) assertDoesNotThrow(() -> smt.apply(createRecord(null, value.array()))).value();
+    }
+
+    private int destinationId(String subject) {
+        try {
+            return destSchemaRegistry.getSchemaRegistryClient().getLatestSchemaMetadata(subject).getId();
+        } catch (IOException | RestClientException e) {
+            return fail(e);
+        }
+    }
+
+    static Stream<Arguments> destinationSubjectNameStrategies() {
+        return Stream.of(
+                Arguments.of(RecordNameStrategy.class, NAME_SCHEMA.getFullName()),
+                Arguments.of(TopicRecordNameStrategy.class, TOPIC + "-" + NAME_SCHEMA.getFullName()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("destinationSubjectNameStrategies")
+    public void testDestinationSubjectNameStrategy(Class<?> strategy, String subject) throws IOException, RestClientException {
+        smtConfiguration.put(ConfigName.DEST_VALUE_SUBJECT_NAME_STRATEGY, strategy);
+        configure(false);
+
+        byte[] appliedValue = applyNewSchema(new AvroSchema(NAME_SCHEMA), new byte[] {0}, false);
+
+        assertEquals(destinationId(subject), ByteBuffer.wrap(appliedValue).getInt(1), "record value's schema id matches destination id");
+        assertTrue(destSchemaRegistry.getSchemaRegistryClient().getAllVersions(TOPIC + "-value").isEmpty(),
+                "nothing was registered under the topic");
+    }
+
+    static Stream<Arguments> lookupFirstCases() {
+        return Stream.of(
+                // already in the destination, so found by the lookup and not registered
+                Arguments.of(new AvroSchema(NAME_SCHEMA), true),
+                Arguments.of(GREETING_JSON, true),
+                // looked up, then registered
+                Arguments.of(new AvroSchema(NAME_SCHEMA), false));
+    }
+
+    @ParameterizedTest
+    @MethodSource("lookupFirstCases")
+    public void testLookupFirst(ParsedSchema schema, boolean inDestination) throws IOException, RestClientException {
+        smtConfiguration.put(ConfigName.REGISTRY_LOOKUP_FIRST, true);
+        configure(false);
+
+        byte[] appliedValue = applyNewSchema(schema, new byte[] {0}, inDestination);
+
+        assertEquals(destinationId(TOPIC + "-value"), ByteBuffer.wrap(appliedValue).getInt(1), "record value's schema id matches destination id");
+        assertEquals(1, destSchemaRegistry.getSchemaRegistryClient().getAllVersions(TOPIC + "-value").size());
+        assertEquals(inDestination ? 1 : 0, metric("registration-skipped-total"));
+    }
+
+    @Test
+    public void testLookupFirstMakesOneRequestHoweverManyVersions() {
+        smtConfiguration.put(ConfigName.REGISTRY_LOOKUP_FIRST, true);
+        configure(false);
+
+        log.info("Registering schemas in destination registry");
+        for (org.apache.avro.Schema schema : Arrays.asList(INT_SCHEMA, STRING_SCHEMA, BOOLEAN_SCHEMA, NAME_SCHEMA)) {
+            destSchemaRegistry.registerSchema(TOPIC, false, schema);
+        }
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, NAME_SCHEMA);
+
+        assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+
+        String subject = TOPIC + "-value";
+        assertEquals(1, destSchemaRegistry.subjectRequests(RequestMethod.POST, subject, ""), "the schema was looked up once");
+        assertEquals(0, destSchemaRegistry.subjectRequests(RequestMethod.ANY, subject, "/versions.*"),
+                "no versions were listed, fetched or registered");
+        assertEquals(1, metric("registration-skipped-total"));
+    }
+
+    static Stream<Arguments> schemaTypes() {
+        return Stream.of(
+                // message indexes [1] for Greeting, the schema's second message, then field 1 = "hi"
+                Arguments.of(GREETING_PROTO, new byte[] {0x02, 0x02, 0x0a, 0x02, 'h', 'i'}),
+                Arguments.of(GREETING_JSON, "{\"text\":\"hi\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("schemaTypes")
+    public void testOnlySchemaIdRewritten(ParsedSchema schema, byte[] data) throws IOException, RestClientException {
+        configure(false);
+
+        byte[] appliedValue = applyNewSchema(schema, data, false);
+
+        SchemaMetadata metadata = destSchemaRegistry.getSchemaRegistryClient().getLatestSchemaMetadata(TOPIC + "-value");
+        assertEquals(schema.schemaType(), metadata.getSchemaType(), "the schema kept its type");
+        assertEquals(metadata.getId(), ByteBuffer.wrap(appliedValue).getInt(1), "record value's schema id matches destination id");
+        assertArrayEquals(data, Arrays.copyOfRange(appliedValue, AVRO_CONTENT_OFFSET, appliedValue.length),
+                "everything after the schema id is left as it was");
+    }
+
+    @Test
+    public void testProtobufReferencesAreCopiedFirst() throws IOException, RestClientException {
+        String common = "syntax = \"proto3\";\n"
+                + "package cricket.jmoore.kafka.connect.transforms;\n"
+                + "message Envelope { string id = 1; }\n";
+        String greeting = "syntax = \"proto3\";\n"
+                + "package cricket.jmoore.kafka.connect.transforms;\n"
+                + "import \"common.proto\";\n"
+                + "message Greeting { Envelope envelope = 1; string text = 2; }\n";
+        configure(false);
+        log.info("Registering schemas in source registry");
+        sourceSchemaRegistry.registerSchema("common.proto", new ProtobufSchema(common));
+        ProtobufSchema greetingSchema = new ProtobufSchema(greeting,
+                Collections.singletonList(new SchemaReference("common.proto", "common.proto", 1)),
+                Collections.singletonMap("common.proto", common), null, null);
+
+        byte[] appliedValue = applyNewSchema(greetingSchema, new byte[] {0x00, 0x12, 0x02, 'h', 'i'}, false);
+
+        SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+        SchemaMetadata metadata = destClient.getLatestSchemaMetadata(TOPIC + "-value");
+        assertEquals(metadata.getId(), ByteBuffer.wrap(appliedValue).getInt(1), "record value's schema id matches destination id");
+        assertEquals(1, metadata.getReferences().size());
+        SchemaReference reference = metadata.getReferences().get(0);
+        assertEquals("common.proto", reference.getSubject());
+        assertEquals(destClient.getLatestSchemaMetadata("common.proto").getVersion(), reference.getVersion(),
+                "the reference points at the copy in the destination registry");
+    }
+
+    @Test
+    public void testPreserveIdsPassesRecordsThroughUnchanged() {
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        configure(false);
+
+        log.info("Registering schemas in source registry");
+        // the transferred schema's id is not the first one the destination registry would assign
+        sourceSchemaRegistry.registerSchema(TOPIC + "-other", false, INT_SCHEMA);
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        try {
+            byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+            byte[] original = value.clone();
+            for (int i = 0; i < 2; i++) {
+                ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(null, value)));
+                assertArrayEquals(original, (byte[]) appliedRecord.value(), "the record passed through unchanged");
+            }
+
+            SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+            assertEquals(sourceId, destClient.getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                    "the schema kept its id in the destination registry");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+        assertEquals(1, metric("cache-hit-total"), "the second record found the imported id");
+    }
+
+    @Test
+    public void testPreserveIdsImportsReferencesUnderTheirSourceIds() throws IOException, RestClientException {
+        String common = "syntax = \"proto3\";\n"
+                + "package cricket.jmoore.kafka.connect.transforms;\n"
+                + "message Envelope { string id = 1; }\n";
+        String greeting = "syntax = \"proto3\";\n"
+                + "package cricket.jmoore.kafka.connect.transforms;\n"
+                + "import \"common.proto\";\n"
+                + "message Greeting { Envelope envelope = 1; string text = 2; }\n";
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        configure(false);
+
+        log.info("Registering schemas in source registry");
+        // neither schema's id is one the destination registry would assign
+        sourceSchemaRegistry.registerSchema(TOPIC + "-other", false, INT_SCHEMA);
+        int commonId = sourceSchemaRegistry.registerSchema("common.proto", new ProtobufSchema(common));
+        int greetingId = sourceSchemaRegistry.registerSchema(TOPIC, false, new ProtobufSchema(greeting,
+                Collections.singletonList(new SchemaReference("common.proto", "common.proto", 1)),
+                Collections.singletonMap("common.proto", common), null, null));
+
+        ByteBuffer value = ByteBuffer.allocate(AVRO_CONTENT_OFFSET + 5);
+        value.put(MAGIC_BYTE).putInt(greetingId).put(new byte[] {0x00, 0x12, 0x02, 'h', 'i'});
+        byte[] original = value.array().clone();
+        ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(null, value.array())));
+        assertArrayEquals(original, (byte[]) appliedRecord.value(), "the record passed through unchanged");
+
+        SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+        assertEquals(commonId, destClient.getLatestSchemaMetadata("common.proto").getId(),
+                "the referenced schema kept its id in the destination registry");
+        assertEquals("IMPORT", destClient.getMode("common.proto"), "the referenced schema was imported");
+        assertEquals(greetingId, destClient.getLatestSchemaMetadata(TOPIC + "-value").getId());
+    }
+
+    @Test
+    public void testPreserveIdsOffset() {
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        smtConfiguration.put(ConfigName.PRESERVE_IDS_OFFSET, 1000);
+        configure(false);
+
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        try {
+            byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+            for (int i = 0; i < 2; i++) {
+                ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(null, value.clone())));
+                assertEquals(sourceId + 1000, ByteBuffer.wrap((byte[]) appliedRecord.value()).getInt(1),
+                        "the record was rewritten to the offset id");
+            }
+
+            SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+            assertEquals(sourceId + 1000, destClient.getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                    "the schema was imported under the offset id");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+        assertEquals(1, metric("cache-hit-total"), "the second record found the imported id");
+    }
+
+    @Test
+    public void testPreserveIdsOffsetOverflowFailsRecord() {
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        smtConfiguration.put(ConfigName.PRESERVE_IDS_OFFSET, Integer.MAX_VALUE - 1);
+        configure(false);
+
+        log.info("Registering schemas in source registry");
+        sourceSchemaRegistry.registerSchema(TOPIC + "-other", false, INT_SCHEMA);
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+        assertTrue(sourceId > 1, "the source id does not fit once offset");
+
+        byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+        assertThrows(ConnectException.class, () -> smt.apply(createRecord(null, value)));
+        assertEquals(1, metric("failures-invalid-schema-id-total"), "the id that cannot be offset was counted as a failure");
+    }
+
+    @Test
+    public void testPreserveIdsOffsetRange() {
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        smtConfiguration.put(ConfigName.PRESERVE_IDS_OFFSET, Integer.MAX_VALUE);
+        assertThrows(ConfigException.class, () -> configure(false), "no source id could be offset by the largest int");
+    }
+
+    @Test
+    public void testPreserveIdsIgnoresMappingToAnotherId(@TempDir Path dir) throws IOException {
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        // a snapshot written while the destination registry still assigned ids
+        final Path snapshot = dir.resolve("schema-ids.snapshot");
+        RegistryPairContext previous = RegistryPairContext.create(
+                Collections.singletonList(sourceSchemaRegistry.getUrl()), Collections.emptyMap(),
+                Collections.singletonList(destSchemaRegistry.getUrl()), Collections.emptyMap(), 10, 0,
+                RegistryPairContext.ClientFactory.DEFAULT, SubjectNames.topicNames(10).strategies(), null);
+        previous.restore(TOPIC + "-value", sourceId, sourceId + 100);
+        IdMappingSnapshot.write(snapshot, previous);
+        previous.release();
+
+        smtConfiguration.put(ConfigName.SNAPSHOT_PATH, snapshot.toString());
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        configure(false);
+
+        byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+        ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(null, value)));
+        assertEquals(sourceId, ByteBuffer.wrap((byte[]) appliedRecord.value()).getInt(1),
+                "the record kept its id instead of taking the one from the snapshot");
+        try {
+            assertEquals(sourceId, destSchemaRegistry.getSchemaRegistryClient().getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                    "the schema was imported under its source id");
+        } catch (RestClientException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testSharedContext() {
+        smtConfiguration.put(ConfigName.SHARED_CONTEXT, true);
+        final int sharedBefore = RegistryPairContext.sharedCount();
+
+        SchemaRegistryTransfer other = new SchemaRegistryTransfer();
+        smt.configure(smtConfiguration);
+        other.configure(smtConfiguration);
+        assertEquals(sharedBefore + 1, RegistryPairContext.sharedCount(),
+                "instances pointed at the same registries share one context");
+
+        smt.close();
+        assertEquals(sharedBefore + 1, RegistryPairContext.sharedCount(),
+                "the context stays alive while an instance still uses it");
+        other.close();
+        assertEquals(sharedBefore, RegistryPairContext.sharedCount(),
+                "the context is dropped once the last instance is closed");
+    }
+
+    @Test
+    public void testSharedContextSeparatesMappings() {
+        smtConfiguration.put(ConfigName.SHARED_CONTEXT, true);
+        final int sharedBefore = RegistryPairContext.sharedCount();
+        smt.configure(smtConfiguration);
+
+        Map<String, Object> recordNames = new HashMap<>(smtConfiguration);
+        recordNames.put(ConfigName.DEST_VALUE_SUBJECT_NAME_STRATEGY, RecordNameStrategy.class.getName());
+        Map<String, Object> preserved = new HashMap<>(smtConfiguration);
+        preserved.put(ConfigName.PRESERVE_IDS, true);
+        Map<String, Object> offset = new HashMap<>(preserved);
+        offset.put(ConfigName.PRESERVE_IDS_OFFSET, 1000);
+
+        List<SchemaRegistryTransfer> others = new ArrayList<>();
+        try {
+            for (Map<String, Object> configs : Arrays.asList(recordNames, preserved, offset)) {
+                SchemaRegistryTransfer other = new SchemaRegistryTransfer();
+                others.add(other);
+                other.configure(configs);
+            }
+            assertEquals(sharedBefore + 4, RegistryPairContext.sharedCount(),
+                    "instances naming subjects or preserving ids differently do not share a mapping");
+        } finally {
+            others.forEach(SchemaRegistryTransfer::close);
+            smt.close();
+        }
+    }
+
+    @Test
+    public void testWarmupCopiesSubjectsBeforeFirstRecord() {
+        log.info("Registering schemas in source registry");
+        sourceSchemaRegistry.registerSchema(TOPIC, true, INT_SCHEMA);
+        sourceSchemaRegistry.registerSchema(TOPIC, false, NAME_SCHEMA);
+        sourceSchemaRegistry.registerSchema(TOPIC, false, NAME_SCHEMA_ALIASED);
+
+        smtConfiguration.put(ConfigName.WARMUP_ENABLED, true);
+        configure(true);
+
+        SchemaRegistryClient destClient = destSchemaRegistry.getSchemaRegistryClient();
+        try {
+            assertEquals(1, destClient.getAllVersions(TOPIC + "-key").size(),
+                    "the key subject was copied during configure()");
+            assertEquals(2, destClient.getAllVersions(TOPIC + "-value").size(),
+                    "every version of the value subject was copied during configure()");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    public void testWarmupImportsPreservedIdsIntoSharedContext() {
+        log.info("Registering schemas in source registry");
+        // the transferred schema's id is not the first one the destination registry would assign
+        sourceSchemaRegistry.registerSchema(TOPIC + "-other", false, INT_SCHEMA);
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        smtConfiguration.put(ConfigName.WARMUP_ENABLED, true);
+        smtConfiguration.put(ConfigName.SHARED_CONTEXT, true);
+        configure(false);
+        SchemaRegistryTransfer other = new SchemaRegistryTransfer();
+        try {
+            other.configure(smtConfiguration);
+
+            byte[] value = encodeAvroObject(STRING_SCHEMA, sourceId, HELLO_WORLD_VALUE).toByteArray();
+            for (SchemaRegistryTransfer transform : Arrays.asList(smt, other)) {
+                ConnectRecord appliedRecord = assertDoesNotThrow(() -> transform.apply(createRecord(null, value.clone())));
+                assertArrayEquals(value, (byte[]) appliedRecord.value(), "the record passed through unchanged");
+            }
+            assertEquals(1, metric("cache-hit-total"), "the id imported during warm-up was found");
+            assertEquals(0, metric("cache-miss-total"));
+            assertEquals(0, smt.context().subjectRegistrations.size(), "the imported ids were not kept as mappings");
+            assertEquals(sourceId, destSchemaRegistry.getSchemaRegistryClient().getLatestSchemaMetadata(TOPIC + "-value").getId(),
+                    "the schema kept its id in the destination registry");
+        } catch (IOException | RestClientException e) {
+            fail(e);
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testSnapshotRestoresImportedIdsAfterRestart(@TempDir Path dir) throws IOException {
+        final Path snapshot = dir.resolve("schema-ids.snapshot");
+        String node = sourceSchemaRegistry.startNode(0);
+        smtConfiguration.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, node);
+        smtConfiguration.put(ConfigName.SNAPSHOT_PATH, snapshot.toString());
+        smtConfiguration.put(ConfigName.PRESERVE_IDS, true);
+        smtConfiguration.put(ConfigName.PRESERVE_IDS_OFFSET, 1000);
+        configure(false);
+
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+        assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+        smt.close();
+
+        // a restarted transform knows the id was imported even though the source registry is unreachable
+        sourceSchemaRegistry.stopNode(node);
+        smt = new SchemaRegistryTransfer();
+        smt.configure(smtConfiguration);
+
+        ConnectRecord restoredRecord = assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+        assertEquals(sourceId + 1000, ByteBuffer.wrap((byte[]) restoredRecord.value()).getInt(1),
+                "the record was rewritten to the restored offset id");
+        assertEquals(1, metric("cache-hit-total"));
+    }
+
+    @Test
+    public void testSnapshotRestoresMappingAfterRestart(@TempDir Path dir) throws IOException {
+        final Path snapshot = dir.resolve("schema-ids.snapshot");
+        String node = sourceSchemaRegistry.startNode(0);
+        smtConfiguration.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, node);
+        smtConfiguration.put(ConfigName.SNAPSHOT_PATH, snapshot.toString());
+        // the value subject is not named after the topic, so only the snapshot knows which topic it belongs to
+        smtConfiguration.put(ConfigName.DEST_VALUE_SUBJECT_NAME_STRATEGY, RecordNameStrategy.class.getName());
+        configure(true);
+
+        log.info("Registering schemas in source registry");
+        int keyId = sourceSchemaRegistry.registerSchema(TOPIC, true, STRING_SCHEMA);
+        int valueId = sourceSchemaRegistry.registerSchema(TOPIC, false, NAME_SCHEMA);
+        byte[] key = encodeAvroObject(STRING_SCHEMA, keyId, HELLO_WORLD_VALUE).toByteArray();
+        GenericData.Record name = new GenericRecordBuilder(NAME_SCHEMA).set("first", "fname").set("last", "lname").build();
+        byte[] value = encodeAvroObject(NAME_SCHEMA, valueId, name).toByteArray();
+
+        ConnectRecord appliedRecord = assertDoesNotThrow(() -> smt.apply(createRecord(key, value)));
+        smt.close();
+        assertTrue(Files.exists(snapshot), "the mapping was written when the transform closed");
+
+        // a restarted transform translates both ids even though the source registry is unreachable
+        sourceSchemaRegistry.stopNode(node);
+        smt = new SchemaRegistryTransfer();
+        smt.configure(smtConfiguration);
+
+        ConnectRecord restoredRecord = assertDoesNotThrow(() -> smt.apply(createRecord(key, value)));
+        assertArrayEquals((byte[]) appliedRecord.key(), (byte[]) restoredRecord.key(),
+                "record key's schema id matches the restored destination id");
+        assertArrayEquals((byte[]) appliedRecord.value(), (byte[]) restoredRecord.value(),
+                "record value's schema id matches the restored destination id");
+    }
+
+    @Test
+    public void testSnapshotOfAnotherRegistryPairIsIgnored(@TempDir Path dir) throws IOException {
+        final Path snapshot = dir.resolve("schema-ids.snapshot");
+        smtConfiguration.put(ConfigName.SNAPSHOT_PATH, snapshot.toString());
+        configure(false);
+
+        log.info("Registering schema in source registry");
+        int sourceId = sourceSchemaRegistry.registerSchema(TOPIC, false, STRING_SCHEMA);
+        assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+        smt.close();
+        assertTrue(Files.exists(snapshot), "the mapping was written when the transform closed");
+
+        // the same registry behind another url, which the snapshot cannot tell apart from any other registry
+        String node = sourceSchemaRegistry.startNode(0);
+        smtConfiguration.put(ConfigName.SRC_SCHEMA_REGISTRY_URL, node);
+        smt = new SchemaRegistryTransfer();
+        smt.configure(smtConfiguration);
+
+        assertDoesNotThrow(() -> smt.apply(createRecord(TOPIC, sourceId)));
+        assertEquals(1, sourceSchemaRegistry.schemaFetches(node), "the mapping was not taken from the snapshot");
+    }
+
     @Test
     public void testTombstoneRecord() {
         configure(false);